@@ -0,0 +1,117 @@
+package multithreaded;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the JMH benchmarks of this package and gates on regressions. Every argument is passed to
+ * JMH except these key=value options:
+ * <pre>
+ *   save=bench.csv                   write the primary score of every benchmark and parameter set
+ *   compare=bench.csv tolerance=10   exit 1 if any of them is more than 10% worse than the file
+ *   threads=1,4,16                   run everything once per thread count, JMH's -t takes only one
+ * </pre>
+ * Producer and consumer threads are JMH thread groups, e.g. {@code QueueBenchmark -tg 4,4}; the
+ * other benchmarks take their thread count from {@code threads} or {@code -t}. Latency percentiles
+ * come from the sample-time mode, {@code -bm sample}.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException {
+        Map<String, String> options = new HashMap<>();
+        List<String> jmhArgs = new ArrayList<>();
+        for (String arg : args) {
+            for (String option : arg.trim().split("\\s+")) {
+                int eq = option.indexOf('=');
+                String key = eq > 0 ? option.substring(0, eq) : "";
+                if (key.equals("save") || key.equals("compare") || key.equals("tolerance") || key.equals("threads")) {
+                    options.put(key, option.substring(eq + 1));
+                } else if (!option.isEmpty()) {
+                    jmhArgs.add(option);
+                }
+            }
+        }
+        Options jmhOptions = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        Map<String, RunResult> results = new LinkedHashMap<>();
+        for (Options run : sweep(jmhOptions, options.get("threads"))) {
+            for (RunResult result : new Runner(run).run()) {
+                results.put(name(result), result);
+            }
+        }
+        System.exit(saveAndCompare(options, results) ? 0 : 1);
+    }
+
+    private static List<Options> sweep(Options jmhOptions, String threads) {
+        List<Options> runs = new ArrayList<>();
+        if (threads == null) {
+            runs.add(jmhOptions);
+            return runs;
+        }
+        for (String count : threads.split(",")) {
+            runs.add(new OptionsBuilder().parent(jmhOptions).threads(Integer.parseInt(count.trim())).build());
+        }
+        return runs;
+    }
+
+    private static String name(RunResult run) {
+        StringBuilder name = new StringBuilder(run.getParams().getBenchmark());
+        Map<String, String> params = new TreeMap<>();
+        for (String key : run.getParams().getParamsKeys()) {
+            params.put(key, run.getParams().getParam(key));
+        }
+        params.forEach((key, value) -> name.append(' ').append(key).append('=').append(value));
+        name.append(" threads=").append(run.getParams().getThreads());
+        return name.append(' ').append(run.getParams().getMode().shortLabel()).toString();
+    }
+
+    private static boolean saveAndCompare(Map<String, String> options, Map<String, RunResult> results) throws IOException {
+        String save = options.get("save");
+        if (save != null) {
+            List<String> lines = new ArrayList<>();
+            results.forEach((name, run) -> lines.add(name + "," + run.getPrimaryResult().getScore()));
+            Files.write(Paths.get(save), lines, StandardCharsets.UTF_8);
+        }
+        String compare = options.get("compare");
+        if (compare == null) {
+            return true;
+        }
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "10")) / 100;
+        boolean ok = true;
+        for (String line : Files.readAllLines(Paths.get(compare), StandardCharsets.UTF_8)) {
+            int comma = line.lastIndexOf(',');
+            String name = line.substring(0, comma);
+            double baseline = Double.parseDouble(line.substring(comma + 1));
+            RunResult run = results.get(name);
+            if (run == null) {
+                continue;
+            }
+            double current = run.getPrimaryResult().getScore();
+            // Throughput regresses downwards, times upwards
+            boolean higherIsBetter = run.getParams().getMode() == Mode.Throughput;
+            boolean regressed = higherIsBetter ? current < baseline * (1 - tolerance) : current > baseline * (1 + tolerance);
+            if (regressed) {
+                System.out.println(String.format("REGRESSION %s: %,.3f -> %,.3f %s", name, baseline, current,
+                        run.getPrimaryResult().getScoreUnit()));
+                ok = false;
+            }
+        }
+        return ok;
+    }
+}
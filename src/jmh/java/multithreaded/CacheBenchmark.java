@@ -0,0 +1,127 @@
+package multithreaded;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache-aside reads of Zipf distributed keys from a key space 10x larger than the cache, so most
+ * operations are hits and the rest a miss followed by a put and an eviction. Compares
+ * {@link LRUCache} with a synchronized access-ordered LinkedHashMap from 1 to 32 reader threads
+ * with {@code BenchmarkRunner CacheBenchmark threads=1,2,4,8,16,32}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CacheBenchmark {
+
+    private static final int KEYS = 1 << 20;
+
+    @Param({"LRUCache", "synchronizedLinkedHashMap"})
+    public String cache;
+
+    @Param({"10000"})
+    public int capacity;
+
+    private Cache target;
+    private Integer[] keys;
+
+    interface Cache {
+        Integer get(Integer key);
+
+        void put(Integer key, Integer value);
+    }
+
+    @Setup
+    public void setUp() {
+        double[] cumulative = new double[capacity * 10];
+        double sum = 0;
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        keys = new Integer[KEYS];
+        Random random = new Random(42);
+        for (int i = 0; i < keys.length; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            keys[i] = rank >= 0 ? rank : -rank - 1;
+        }
+        target = create(cache, capacity);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup
+        public void setUp() {
+            // Threads start at different points of the same key sequence
+            next = ThreadLocalRandom.current().nextInt(KEYS);
+        }
+    }
+
+    @Benchmark
+    public Integer getOrPut(Cursor cursor) {
+        Integer key = keys[cursor.next++ & (KEYS - 1)];
+        Integer value = target.get(key);
+        if (value == null) {
+            target.put(key, key);
+        }
+        return value;
+    }
+
+    static Cache create(String cache, int capacity) {
+        switch (cache) {
+            case "LRUCache": {
+                LRUCache<Integer, Integer> lru = LRUCache.<Integer, Integer>builder().maximumSize(capacity).build();
+                return new Cache() {
+                    public Integer get(Integer key) {
+                        return lru.get(key);
+                    }
+
+                    public void put(Integer key, Integer value) {
+                        lru.put(key, value);
+                    }
+                };
+            }
+            case "synchronizedLinkedHashMap": {
+                Map<Integer, Integer> map = Collections.synchronizedMap(new LinkedHashMap<Integer, Integer>(capacity, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                        return size() > capacity;
+                    }
+                });
+                return new Cache() {
+                    public Integer get(Integer key) {
+                        return map.get(key);
+                    }
+
+                    public void put(Integer key, Integer value) {
+                        map.put(key, value);
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown cache: " + cache);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package multithreaded;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out through {@link PubSubQueueSystem}: publisher threads publish to one topic and every
+ * subscriber thread reads its own subscription, so each message is read once per subscriber.
+ * {@code -tg 1,4} runs one publisher and four subscribers. Topics are either the queue-per-subscriber
+ * kind or a ring, where a subscriber that falls a whole lap behind skips ahead instead of
+ * holding messages back.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PubSubBenchmark {
+
+    private static final String TOPIC = "bench";
+    private static final int RING_CAPACITY = 1 << 16;
+
+    interface Read {
+        String read() throws InterruptedException;
+    }
+
+    @Param({"queue", "ring"})
+    public String topic;
+
+    @Param({"16", "256"})
+    public int payload;
+
+    private PubSubQueueSystem system;
+    private String[] messages;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        system = new PubSubQueueSystem();
+        if (topic.equals("ring")) {
+            system.addRingTopic(TOPIC, RING_CAPACITY);
+        } else {
+            system.addTopic(TOPIC);
+        }
+        String padding = new String(new char[payload]).replace('\0', 'x');
+        messages = new String[1024];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = i + ":" + padding;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Subscription {
+        private Read reader;
+
+        @Setup(Level.Iteration)
+        public void subscribe(PubSubBenchmark benchmark) {
+            if (benchmark.topic.equals("ring")) {
+                reader = benchmark.system.subscribeRing(TOPIC)::read;
+            } else {
+                Subscriber subscriber = new Subscriber(TOPIC);
+                benchmark.system.subscribe(TOPIC, subscriber);
+                reader = subscriber::read;
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("fanout")
+    public void publish() {
+        system.publish(TOPIC, messages[ThreadLocalRandom.current().nextInt(messages.length)]);
+    }
+
+    @Benchmark
+    @Group("fanout")
+    public String read(Subscription subscription) throws InterruptedException {
+        return subscription.reader.read();
+    }
+}
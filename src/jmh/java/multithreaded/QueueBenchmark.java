@@ -0,0 +1,139 @@
+package multithreaded;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producer and consumer threads on one queue of this package, against ArrayBlockingQueue and
+ * LinkedBlockingQueue. The put and take methods form one JMH group; {@code -tg 4,4} runs four
+ * producers with four consumers. Throughput is per method and for the group, sample-time mode
+ * gives the latency percentiles of a single put or take including any time blocked.
+ * <p>
+ * Most of these queues carry ints only, so a message of {@code payload} bytes is moved as
+ * payload / 4 consecutive ints: one put or take transfers a whole message. With several producers
+ * the ints of different messages interleave, which doesn't change the amount of work per message.
+ * <p>
+ * A thread blocked on a full or empty queue when an iteration ends is interrupted by JMH after the
+ * timeout, which the queues report as InterruptedException. Unbounded queues grow while producers
+ * outrun consumers, every iteration starts from an empty one.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class QueueBenchmark {
+
+    interface Put {
+        void put(int value) throws InterruptedException;
+    }
+
+    interface Take {
+        int take() throws InterruptedException;
+    }
+
+    static final class Channel {
+        private final Put put;
+        private final Take take;
+
+        private Channel(Put put, Take take) {
+            this.put = put;
+            this.take = take;
+        }
+    }
+
+    @Param({"CustomBoundedBlockingQueue", "RingBufferBlockingQueue", "IntBoundedBlockingQueue", "ArrayBlockingQueue",
+            "MessageQueue", "IntMessageQueue", "SegmentedMessageQueue", "LinkedBlockingQueue"})
+    public String queue;
+
+    // Bounded queues only
+    @Param({"1024"})
+    public int capacity;
+
+    @Param({"4", "64", "1024"})
+    public int payload;
+
+    private Channel channel;
+    private int words;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        channel = create(queue, capacity);
+        words = Math.max(1, payload / Integer.BYTES);
+    }
+
+    @Benchmark
+    @Group("transfer")
+    public void put() throws InterruptedException {
+        for (int i = 0; i < words; i++) {
+            channel.put.put(42);
+        }
+    }
+
+    @Benchmark
+    @Group("transfer")
+    public int take() throws InterruptedException {
+        int sum = 0;
+        for (int i = 0; i < words; i++) {
+            sum += channel.take.take();
+        }
+        return sum;
+    }
+
+    static Channel create(String queue, int capacity) {
+        switch (queue) {
+            case "CustomBoundedBlockingQueue": {
+                CustomBoundedBlockingQueue q = new CustomBoundedBlockingQueue(capacity);
+                return new Channel(q::produce, q::consume);
+            }
+            case "RingBufferBlockingQueue": {
+                RingBufferBlockingQueue<Integer> q = new RingBufferBlockingQueue<>(capacity, WaitStrategy.YIELD);
+                return new Channel(q::produce, q::consume);
+            }
+            case "IntBoundedBlockingQueue": {
+                IntBoundedBlockingQueue q = new IntBoundedBlockingQueue(capacity);
+                return new Channel(q::produce, q::consume);
+            }
+            case "ArrayBlockingQueue": {
+                ArrayBlockingQueue<Integer> q = new ArrayBlockingQueue<>(capacity);
+                return new Channel(q::put, q::take);
+            }
+            case "MessageQueue": {
+                MessageQueue q = new MessageQueue();
+                return new Channel(q::produce, q::consume);
+            }
+            case "IntMessageQueue": {
+                IntMessageQueue q = new IntMessageQueue();
+                return new Channel(q::produce, q::consume);
+            }
+            case "SegmentedMessageQueue": {
+                SegmentedMessageQueue q = new SegmentedMessageQueue();
+                return new Channel(q::produce, q::consume);
+            }
+            case "LinkedBlockingQueue": {
+                LinkedBlockingQueue<Integer> q = new LinkedBlockingQueue<>();
+                return new Channel(q::put, q::take);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown queue: " + queue);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package multithreaded;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tryAcquire from several threads on one limiter, configured either far above the call rate so
+ * every call updates the state ({@code admitting}), or far below it so nearly every call is a
+ * rejection ({@code rejecting}). Run it with {@code BenchmarkRunner RateLimiterBenchmark
+ * threads=1,4,16}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    @Param({"tokenBucket", "leakyBucket", "fixedWindow", "slidingWindowLog", "slidingWindowCounter"})
+    public String algorithm;
+
+    @Param({"admitting", "rejecting"})
+    public String load;
+
+    private RateLimitter limiter;
+
+    @Setup
+    public void setUp() {
+        limiter = load.equals("admitting") ? admitting(algorithm) : rejecting(algorithm);
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        return limiter.tryAcquire();
+    }
+
+    static RateLimitter admitting(String algorithm) {
+        switch (algorithm) {
+            case "tokenBucket":
+                return RateLimitter.tokenBucket(1e12, 1 << 20);
+            case "leakyBucket":
+                return RateLimitter.leakyBucket(1e12, 1 << 20);
+            case "fixedWindow":
+                return RateLimitter.fixedWindow(1 << 20, 1, TimeUnit.MILLISECONDS);
+            case "slidingWindowLog":
+                return RateLimitter.slidingWindowLog(1 << 20, 1, TimeUnit.MILLISECONDS);
+            case "slidingWindowCounter":
+                return RateLimitter.slidingWindowCounter(1 << 20, 1, TimeUnit.MILLISECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+        }
+    }
+
+    static RateLimitter rejecting(String algorithm) {
+        switch (algorithm) {
+            case "tokenBucket":
+                return RateLimitter.tokenBucket(1000, 1);
+            case "leakyBucket":
+                return RateLimitter.leakyBucket(1000, 0);
+            case "fixedWindow":
+                return RateLimitter.fixedWindow(1, 1, TimeUnit.SECONDS);
+            case "slidingWindowLog":
+                return RateLimitter.slidingWindowLog(1, 1, TimeUnit.SECONDS);
+            case "slidingWindowCounter":
+                return RateLimitter.slidingWindowCounter(1, 1, TimeUnit.SECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+        }
+    }
+}
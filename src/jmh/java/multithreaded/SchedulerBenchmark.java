@@ -0,0 +1,149 @@
+package multithreaded;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Job submission into {@link JobSchedulerManager} and {@link ShardedJobSchedulerManager}.
+ * {@code submit} only measures getting a job into the queue(s): dispatchers are not started, so
+ * jobs pile up until the iteration ends. Sweep the submitter threads through BenchmarkRunner,
+ * {@code SchedulerBenchmark.submit threads=1,4,16,64}.
+ * {@code placement} submits a batch of jobs from one thread and waits until the dispatchers have
+ * placed all of them on clusters with room to spare, so its sample times are submit-to-placement
+ * latencies of a whole batch.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class SchedulerBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"JobSchedulerManager", "ShardedJobSchedulerManager-4", "ShardedJobSchedulerManager-16"})
+    public String scheduler;
+
+    private Submit submit;
+    private AtomicInteger ids;
+
+    interface Submit {
+        void submit(Job job) throws InterruptedException;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        ids = new AtomicInteger();
+        if (scheduler.equals("JobSchedulerManager")) {
+            submit = new JobSchedulerManager(4, new PriorityOrderQueue())::submitJob;
+        } else {
+            int shards = Integer.parseInt(scheduler.substring(scheduler.indexOf('-') + 1));
+            submit = new ShardedJobSchedulerManager(shards)::submitJob;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void submit() throws InterruptedException {
+        int id = ids.getAndIncrement();
+        submit.submit(new Job(id, 1, 1, 0L, id % 5));
+    }
+
+    interface Stop {
+        void stop() throws InterruptedException;
+    }
+
+    @State(Scope.Thread)
+    public static class Placement {
+        private Submit submit;
+        private Stop stop;
+        private volatile CountDownLatch placed;
+        private int nextId;
+        private PrintStream out;
+
+        @Setup(Level.Trial)
+        public void start(SchedulerBenchmark benchmark) {
+            // The schedulers log every placement, keep that out of the measurement
+            out = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            if (benchmark.scheduler.equals("JobSchedulerManager")) {
+                JobSchedulerManager manager = new JobSchedulerManager();
+                for (int id = 1; id <= 4; id++) {
+                    manager.addCluster(cluster(id));
+                }
+                manager.startClusters();
+                submit = manager::submitJob;
+                stop = () -> {
+                    manager.shutdown();
+                    manager.awaitTermination(10, TimeUnit.SECONDS);
+                };
+            } else {
+                String scheduler = benchmark.scheduler;
+                ShardedJobSchedulerManager manager = new ShardedJobSchedulerManager(Integer.parseInt(scheduler.substring(scheduler.indexOf('-') + 1)));
+                for (int id = 1; id <= 4; id++) {
+                    manager.addCluster(cluster(id));
+                }
+                manager.startClusters();
+                submit = manager::submitJob;
+                stop = () -> {
+                    manager.shutdown();
+                    manager.awaitTermination(10, TimeUnit.SECONDS);
+                };
+            }
+        }
+
+        private Cluster cluster(int id) {
+            return new Cluster(id, Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2) {
+                @Override
+                public void submit(Job job) {
+                    super.submit(job);
+                    placed.countDown();
+                }
+            };
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            stop.stop();
+            System.setOut(out);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void placement(Placement placement) throws InterruptedException {
+        CountDownLatch placed = new CountDownLatch(BATCH);
+        placement.placed = placed;
+        for (int i = 0; i < BATCH; i++) {
+            int id = placement.nextId++;
+            placement.submit.submit(new Job(id, 1, 1, 0L, id % 5));
+        }
+        placed.await();
+    }
+}
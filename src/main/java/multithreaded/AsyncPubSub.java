@@ -0,0 +1,304 @@
+package multithreaded;
+
+import lombok.Getter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Callback invoked with one or more messages, always in publish order for a given subscription.
+ */
+interface MessageHandler {
+    void onMessages(List<String> messages);
+}
+
+enum DeliveryMode {
+    // A shared, bounded pool of dispatcher threads delivers batches to every handler
+    DISPATCHER_POOL,
+    // One virtual thread per subscriber blocks on its queue, requires JDK 21+
+    VIRTUAL_THREAD
+}
+
+/**
+ * Runs {@link AsyncSubscriber} mailboxes on a fixed number of threads. A subscriber is scheduled
+ * at most once at a time, which keeps its messages in order, and yields the thread after each
+ * batch so that busy subscribers cannot starve the rest.
+ */
+class SubscriptionDispatcher {
+
+    private final ExecutorService executor;
+    private final int maxBatch;
+
+    public SubscriptionDispatcher(int threads, int maxBatch) {
+        if (threads <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("threads and maxBatch must be positive");
+        }
+        executor = Executors.newFixedThreadPool(threads);
+        this.maxBatch = maxBatch;
+    }
+
+    void schedule(AsyncSubscriber subscriber) {
+        if (subscriber.tryMarkScheduled()) {
+            try {
+                executor.execute(() -> drain(subscriber));
+            } catch (RejectedExecutionException e) {
+                // Shut down: nothing will deliver to this subscriber any more, drop instead of failing the publisher
+                subscriber.clearScheduled();
+                subscriber.close();
+                System.out.println("Dispatcher is shut down, dropping messages on topic: " + subscriber.getTopicName());
+            }
+        }
+    }
+
+    private void drain(AsyncSubscriber subscriber) {
+        try {
+            subscriber.deliverBatch(maxBatch);
+        } finally {
+            subscriber.clearScheduled();
+            if (subscriber.hasPending()) {
+                schedule(subscriber);
+            }
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
+
+/**
+ * Subscriber that is pushed to instead of read from: published messages go into a lock-free
+ * mailbox and the {@link SubscriptionDispatcher} hands them to the handler in batches.
+ */
+class AsyncSubscriber implements TopicSubscriber {
+
+    @Getter
+    private final String topicName;
+
+    private final MessageHandler handler;
+    private final SubscriptionDispatcher dispatcher;
+    private final ConcurrentLinkedQueue<String> mailbox;
+    private final AtomicBoolean scheduled;
+    private volatile boolean closed;
+
+    public AsyncSubscriber(String topicName, MessageHandler handler, SubscriptionDispatcher dispatcher) {
+        this.topicName = topicName;
+        this.handler = handler;
+        this.dispatcher = dispatcher;
+        mailbox = new ConcurrentLinkedQueue<>();
+        scheduled = new AtomicBoolean();
+    }
+
+    @Override
+    public void push(String msg) {
+        if (closed) {
+            // A publish that still saw this subscriber in the topic's snapshot
+            return;
+        }
+        mailbox.add(msg);
+        dispatcher.schedule(this);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        mailbox.clear();
+    }
+
+    boolean tryMarkScheduled() {
+        return scheduled.compareAndSet(false, true);
+    }
+
+    void clearScheduled() {
+        scheduled.set(false);
+    }
+
+    boolean hasPending() {
+        return !closed && !mailbox.isEmpty();
+    }
+
+    void deliverBatch(int maxBatch) {
+        List<String> batch = new ArrayList<>(Math.min(maxBatch, 16));
+        String msg;
+        while (batch.size() < maxBatch && (msg = mailbox.poll()) != null) {
+            batch.add(msg);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            handler.onMessages(batch);
+        } catch (RuntimeException e) {
+            System.out.println("Handler failed on topic: " + getTopicName() + " | " + e);
+        }
+    }
+}
+
+/**
+ * Subscriber drained by its own virtual thread. Blocking on the queue parks only the virtual
+ * thread, so thousands of these share a handful of carrier threads.
+ */
+class VirtualThreadSubscriber implements TopicSubscriber {
+
+    private static final Method START_VIRTUAL_THREAD = findStartVirtualThread();
+
+    @Getter
+    private final String topicName;
+
+    private final LinkedBlockingQueue<String> queue;
+    private final Thread thread;
+
+    public VirtualThreadSubscriber(String topicName, MessageHandler handler, int maxBatch) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21+, running on " + System.getProperty("java.version"));
+        }
+        this.topicName = topicName;
+        queue = new LinkedBlockingQueue<>();
+        Runnable loop = () -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<String> batch = new ArrayList<>();
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+                try {
+                    handler.onMessages(batch);
+                } catch (RuntimeException e) {
+                    System.out.println("Handler failed on topic: " + getTopicName() + " | " + e);
+                }
+            }
+        };
+        try {
+            thread = (Thread) START_VIRTUAL_THREAD.invoke(null, loop);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not start virtual thread", e);
+        }
+    }
+
+    @Override
+    public void push(String msg) {
+        queue.add(msg);
+    }
+
+    public static boolean isSupported() {
+        return START_VIRTUAL_THREAD != null;
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    boolean isRunning() {
+        return thread.isAlive();
+    }
+
+    // Looked up reflectively so the rest of the module still builds and runs on Java 8
+    private static Method findStartVirtualThread() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
+
+public class AsyncPubSub {
+
+    public static void main(String[] args) throws InterruptedException {
+        int subscriberCount = 10_000;
+        int messages = 100;
+
+        PubSubQueueSystem pubSubQueueSystem = new PubSubQueueSystem();
+        pubSubQueueSystem.addTopic("news");
+        AtomicLong delivered = new AtomicLong();
+        AtomicLong batches = new AtomicLong();
+        MessageHandler handler = batch -> {
+            delivered.addAndGet(batch.size());
+            batches.incrementAndGet();
+        };
+
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (int i = 0; i < subscriberCount; i++) {
+            pubSubQueueSystem.subscribe("news", handler, DeliveryMode.DISPATCHER_POOL);
+        }
+        for (int i = 0; i < messages; i++) {
+            pubSubQueueSystem.publish("news", "headline-" + i);
+        }
+        while (delivered.get() < (long) subscriberCount * messages) {
+            Thread.sleep(50);
+        }
+        System.out.println("Dispatcher pool | subscribers: " + subscriberCount + " | delivered: " + delivered.get()
+                + " in " + batches.get() + " batches | live threads: " + threadsBefore + " -> "
+                + ManagementFactory.getThreadMXBean().getThreadCount());
+
+        if (VirtualThreadSubscriber.isSupported()) {
+            pubSubQueueSystem.addTopic("sports");
+            delivered.set(0);
+            List<VirtualThreadSubscriber> sportsSubscribers = new ArrayList<>();
+            for (int i = 0; i < subscriberCount; i++) {
+                sportsSubscribers.add((VirtualThreadSubscriber) pubSubQueueSystem.subscribe("sports", handler, DeliveryMode.VIRTUAL_THREAD));
+            }
+            for (int i = 0; i < messages; i++) {
+                pubSubQueueSystem.publish("sports", "score-" + i);
+            }
+            while (delivered.get() < (long) subscriberCount * messages) {
+                Thread.sleep(50);
+            }
+            System.out.println("Virtual threads | subscribers: " + subscriberCount + " | delivered: " + delivered.get()
+                    + " | live platform threads: " + ManagementFactory.getThreadMXBean().getThreadCount());
+
+            // Half are unsubscribed, shutdown stops the rest
+            for (int i = 0; i < subscriberCount / 2; i++) {
+                pubSubQueueSystem.unsubscribe("sports", sportsSubscribers.get(i));
+            }
+            pubSubQueueSystem.shutdown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            long running;
+            while ((running = sportsSubscribers.stream().filter(VirtualThreadSubscriber::isRunning).count()) > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            System.out.println("Virtual threads | still running after unsubscribe and shutdown: " + running + " | " + (running == 0 ? "PASS" : "FAIL"));
+        } else {
+            System.out.println("Virtual threads not available on Java " + System.getProperty("java.version"));
+        }
+        pubSubQueueSystem.shutdown();
+
+        // Publishing to a subscriber whose dispatcher is gone drops the message, new handlers are refused
+        SubscriptionDispatcher stopped = new SubscriptionDispatcher(1, 1);
+        stopped.shutdown();
+        pubSubQueueSystem.subscribe("news", new AsyncSubscriber("news", handler, stopped));
+        boolean published;
+        try {
+            pubSubQueueSystem.publish("news", "late");
+            published = true;
+        } catch (RejectedExecutionException e) {
+            published = false;
+        }
+        boolean refused;
+        try {
+            pubSubQueueSystem.subscribe("news", handler, DeliveryMode.DISPATCHER_POOL);
+            refused = false;
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        System.out.println("After shutdown | publish returned: " + published + " | new handler refused: " + refused
+                + " | " + (published && refused ? "PASS" : "FAIL"));
+    }
+}
@@ -5,16 +5,45 @@ import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking bulk acquisition shared by the semaphore-based queues.
+ */
+final class Semaphores {
+
+    private Semaphores() {
+    }
+
+    /**
+     * Takes as many permits as are available right now, at most max, without waiting.
+     */
+    static int tryAcquireUpTo(Semaphore semaphore, int max) {
+        while (max > 0) {
+            int available = semaphore.availablePermits();
+            if (available <= 0) {
+                return 0;
+            }
+            int wanted = Math.min(available, max);
+            if (semaphore.tryAcquire(wanted)) {
+                return wanted;
+            }
+        }
+        return 0;
+    }
+}
 
 class CustomBoundedBlockingQueue {
 
     private final Queue<Integer> q;
+    private final int capacity;
     private final Semaphore producer;
     private final Semaphore consumer;
     private final Semaphore mutex;
 
     public CustomBoundedBlockingQueue(int capacity) {
         q = new LinkedList<>();
+        this.capacity = capacity;
         consumer = new Semaphore(0);
         producer = new Semaphore(capacity);
         mutex = new Semaphore(1);
@@ -39,6 +68,120 @@ class CustomBoundedBlockingQueue {
         }
     }
 
+    /**
+     * Enqueues src[off, off + len), paying one semaphore/mutex round-trip per batch of free slots
+     * instead of one per element. Waits for one slot at a time and takes whatever else is free with
+     * it, so a large batch never queues behind single-element producers for a whole chunk.
+     */
+    public void produceAll(int[] src, int off, int len) throws InterruptedException {
+        if (off < 0 || len < 0 || off + len > src.length) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + src.length);
+        }
+        while (len > 0) {
+            producer.acquire();
+            int batch = 1 + Semaphores.tryAcquireUpTo(producer, Math.min(len, capacity) - 1);
+            mutex.acquireUninterruptibly();
+            try {
+                for (int i = 0; i < batch; i++) {
+                    q.add(src[off + i]);
+                }
+            } finally {
+                mutex.release();
+                consumer.release(batch);
+            }
+            off += batch;
+            len -= batch;
+        }
+    }
+
+    /**
+     * Blocks until at least one element is available, then moves up to max elements into dst.
+     */
+    public int drainTo(int[] dst, int max) throws InterruptedException {
+        int limit = Math.min(max, dst.length);
+        if (limit <= 0) {
+            return 0;
+        }
+        consumer.acquire();
+        return drainAcquired(dst, limit);
+    }
+
+    /**
+     * Like {@link #drainTo(int[], int)} but gives up and returns 0 once the timeout elapses.
+     */
+    public int drainTo(int[] dst, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        int limit = Math.min(max, dst.length);
+        if (limit <= 0 || !consumer.tryAcquire(timeout, unit)) {
+            return 0;
+        }
+        return drainAcquired(dst, limit);
+    }
+
+    private int drainAcquired(int[] dst, int limit) {
+        int taken = 1 + Semaphores.tryAcquireUpTo(consumer, limit - 1);
+        mutex.acquireUninterruptibly();
+        try {
+            for (int i = 0; i < taken; i++) {
+                dst[i] = q.remove();
+            }
+        } finally {
+            mutex.release();
+            producer.release(taken);
+        }
+        return taken;
+    }
+
+}
+
+/**
+ * int-only counterpart of {@link CustomBoundedBlockingQueue}. Elements live in a preallocated
+ * int[] ring guarded by the queue's monitor, so produce/consume never box or allocate.
+ */
+class IntBoundedBlockingQueue {
+
+    private final int[] items;
+    private int head;
+    private int tail;
+    private int count;
+
+    public IntBoundedBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        items = new int[capacity];
+    }
+
+    public synchronized void produce(int i) throws InterruptedException {
+        while (count == items.length) {
+            wait();
+        }
+        items[tail] = i;
+        tail = next(tail);
+        if (count++ == 0) {
+            notifyAll();
+        }
+    }
+
+    public synchronized int consume() throws InterruptedException {
+        while (count == 0) {
+            wait();
+        }
+        int i = items[head];
+        head = next(head);
+        if (count-- == items.length) {
+            notifyAll();
+        }
+        return i;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private int next(int index) {
+        return index + 1 == items.length ? 0 : index + 1;
+    }
+
 }
 
 
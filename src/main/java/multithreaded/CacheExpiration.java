@@ -0,0 +1,322 @@
+package multithreaded;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timer wheel holding the expiration times of an {@link LRUCache}'s entries. Level 0
+ * has 64 buckets of about a second each, the next levels cover about a minute, an hour and a day
+ * per bucket, and one last bucket takes everything further out. An entry goes into the bucket of
+ * the coarsest level it fits, scheduling and descheduling are O(1) list operations.
+ * <p>
+ * Advancing the wheel only visits the buckets whose time has passed since the last advance. Entries
+ * in a due bucket either expire or are scheduled again into a finer level, which happens at most
+ * once per level, so expiry costs amortized O(1) per entry however many entries are cached.
+ * Entries expire on the first advance after their bucket's second is over, up to about a second
+ * late; {@link LRUCache#get} checks the exact time and never returns an expired value.
+ * <p>
+ * Only used under the cache's eviction lock.
+ */
+final class TimerWheel<K, V> {
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    // Powers of two just above a second, a minute, an hour and a day, then the whole last level
+    private static final long[] SPANS = {
+            1L << 30,
+            1L << 36,
+            1L << 42,
+            1L << 47,
+            4L << 47,
+            4L << 47,
+    };
+    private static final int[] SHIFT = {30, 36, 42, 47, 49};
+
+    private final LRUCache.Node<K, V>[][] wheel;
+    private long nanos;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long nanos) {
+        this.nanos = nanos;
+        wheel = (LRUCache.Node<K, V>[][]) new LRUCache.Node<?, ?>[BUCKETS.length][];
+        for (int level = 0; level < BUCKETS.length; level++) {
+            wheel[level] = (LRUCache.Node<K, V>[]) new LRUCache.Node<?, ?>[BUCKETS[level]];
+            for (int i = 0; i < BUCKETS[level]; i++) {
+                LRUCache.Node<K, V> sentinel = LRUCache.Node.sentinel();
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+                wheel[level][i] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Time of the last advance.
+     */
+    long time() {
+        return nanos;
+    }
+
+    /**
+     * Schedules the node at its expirationTime, moving it if it was scheduled already.
+     */
+    void schedule(LRUCache.Node<K, V> node) {
+        if (isScheduled(node)) {
+            unlink(node);
+        }
+        LRUCache.Node<K, V> sentinel = findBucket(node.expirationTime);
+        node.timerPrev = sentinel.timerPrev;
+        node.timerNext = sentinel;
+        sentinel.timerPrev.timerNext = node;
+        sentinel.timerPrev = node;
+    }
+
+    void deschedule(LRUCache.Node<K, V> node) {
+        if (isScheduled(node)) {
+            unlink(node);
+        }
+    }
+
+    static boolean isScheduled(LRUCache.Node<?, ?> node) {
+        return Objects.nonNull(node.timerNext);
+    }
+
+    /**
+     * Moves the wheel to currentTime and hands every node whose time has come, already unlinked, to
+     * onExpiry. The callback may schedule the node again.
+     */
+    void advance(long currentTime, Consumer<LRUCache.Node<K, V>> onExpiry) {
+        long previousTime = nanos;
+        nanos = currentTime;
+        for (int level = 0; level < SHIFT.length; level++) {
+            long previousTicks = previousTime >>> SHIFT[level];
+            long currentTicks = currentTime >>> SHIFT[level];
+            if (currentTicks - previousTicks <= 0) {
+                // Coarser levels can only have ticked if this one did
+                break;
+            }
+            expire(level, previousTicks, currentTicks - previousTicks, onExpiry);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta, Consumer<LRUCache.Node<K, V>> onExpiry) {
+        LRUCache.Node<K, V>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        // The bucket of the previous tick is visited again, it may hold entries due later in that tick
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            LRUCache.Node<K, V> sentinel = buckets[i & mask];
+            LRUCache.Node<K, V> node = sentinel.timerNext;
+            sentinel.timerPrev = sentinel;
+            sentinel.timerNext = sentinel;
+            while (node != sentinel) {
+                LRUCache.Node<K, V> next = node.timerNext;
+                node.timerPrev = null;
+                node.timerNext = null;
+                if (node.expirationTime - nanos <= 0) {
+                    onExpiry.accept(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private LRUCache.Node<K, V> findBucket(long time) {
+        // Already due, goes where the next advance looks first
+        long duration = Math.max(0L, time - nanos);
+        if (duration == 0L) {
+            time = nanos;
+        }
+        int last = wheel.length - 1;
+        for (int level = 0; level < last; level++) {
+            if (duration < SPANS[level + 1]) {
+                long ticks = time >>> SHIFT[level];
+                return wheel[level][(int) (ticks & (wheel[level].length - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    private static <K, V> void unlink(LRUCache.Node<K, V> node) {
+        node.timerPrev.timerNext = node.timerNext;
+        node.timerNext.timerPrev = node.timerPrev;
+        node.timerPrev = null;
+        node.timerNext = null;
+    }
+}
+
+/**
+ * Expire-after-write, expire-after-access and refresh-ahead of {@link LRUCache}, driven by a fake
+ * clock, then the cost of expiring a large cache through the timer wheel against scanning every
+ * entry once per second as a sweeper thread would.
+ * <pre>
+ *   entries=1000000 ttl=120 seconds=600
+ * </pre>
+ * About entries keys are live at any time: entries / ttl are written per simulated second and each
+ * expires ttl seconds after its write. 10M entries need a heap of about 4g.
+ */
+public class CacheExpiration {
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        int entries = Integer.parseInt(options.getOrDefault("entries", "1000000"));
+        int ttl = Integer.parseInt(options.getOrDefault("ttl", "120"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "600"));
+
+        boolean ok = verifyExpiry() & verifyRefresh() & measure(entries, ttl, seconds);
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean verifyExpiry() {
+        AtomicLong clock = new AtomicLong();
+        LRUCache<String, String> afterWrite = LRUCache.<String, String>builder()
+                .maximumSize(100)
+                .expireAfterWrite(10, TimeUnit.SECONDS)
+                .ticker(clock::get)
+                .build();
+        afterWrite.put("a", "1");
+        advance(clock, 5);
+        afterWrite.get("a");
+        afterWrite.put("b", "2");
+        advance(clock, 6);
+        // Reads don't extend a write deadline, writes do
+        boolean writeOk = Objects.isNull(afterWrite.get("a")) && "2".equals(afterWrite.get("b"));
+        String reloaded = afterWrite.computeIfAbsent("a", key -> "reloaded");
+        advance(clock, 2);
+        afterWrite.cleanUp();
+        writeOk &= "reloaded".equals(reloaded) && afterWrite.estimatedSize() == 2;
+        advance(clock, 10);
+        afterWrite.cleanUp();
+        writeOk &= afterWrite.estimatedSize() == 0 && afterWrite.expirationCount() == 3 && afterWrite.weightedSize() == 0;
+        System.out.println("Expire after write | 10s | expired and reloaded: " + writeOk);
+
+        clock.set(0);
+        LRUCache<String, String> afterAccess = LRUCache.<String, String>builder()
+                .maximumSize(100)
+                .expireAfterAccess(10, TimeUnit.SECONDS)
+                .ticker(clock::get)
+                .build();
+        afterAccess.put("hot", "1");
+        afterAccess.put("cold", "2");
+        for (int i = 0; i < 12; i++) {
+            advance(clock, 5);
+            afterAccess.get("hot");
+        }
+        afterAccess.cleanUp();
+        boolean accessOk = "1".equals(afterAccess.get("hot")) && Objects.isNull(afterAccess.get("cold")) && afterAccess.estimatedSize() == 1;
+        advance(clock, 12);
+        afterAccess.cleanUp();
+        accessOk &= afterAccess.estimatedSize() == 0;
+        System.out.println("Expire after access | 10s | read every 5s for 60s kept, idle expired: " + accessOk);
+        return writeOk && accessOk;
+    }
+
+    private static boolean verifyRefresh() throws InterruptedException {
+        AtomicLong clock = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        LRUCache<String, Integer> cache = LRUCache.<String, Integer>builder()
+                .maximumSize(100)
+                .expireAfterWrite(10, TimeUnit.SECONDS)
+                .refreshAfterWrite(6, TimeUnit.SECONDS, key -> loads.incrementAndGet())
+                .executor(executor)
+                .ticker(clock::get)
+                .build();
+        cache.put("hot", 0);
+        cache.put("cold", 0);
+        boolean ok = true;
+        for (int i = 0; i < 10; i++) {
+            advance(clock, 4);
+            // Served without waiting, the reload lands in the background
+            ok &= Objects.nonNull(cache.get("hot"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.refreshing() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        Integer hot = cache.get("hot");
+        ok &= Objects.nonNull(hot) && hot == loads.get() && Objects.isNull(cache.get("cold"));
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        System.out.println("Refresh ahead | refresh 6s expire 10s | hot key read every 4s for 40s never missed, reloads: "
+                + loads.get() + " | cold key expired: " + Objects.isNull(cache.get("cold")) + " | " + (ok ? "ok" : "FAIL"));
+        return ok;
+    }
+
+    private static void advance(AtomicLong clock, int seconds) {
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private static boolean measure(int entries, int ttl, int seconds) {
+        AtomicLong clock = new AtomicLong();
+        LRUCache<Integer, Integer> cache = LRUCache.<Integer, Integer>builder()
+                .maximumSize(Long.MAX_VALUE)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .ticker(clock::get)
+                .build();
+        int perSecond = Math.max(1, entries / ttl);
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttl);
+        int key = 0;
+        long wheelNanos = 0;
+        long scanNanos = 0;
+        long maxWheelNanos = 0;
+        long maxScanNanos = 0;
+        long maxLateNanos = 0;
+        long scanned = 0;
+        for (int second = 0; second < seconds; second++) {
+            clock.set(TimeUnit.SECONDS.toNanos(second));
+            long start = System.nanoTime();
+            cache.cleanUp();
+            long wheel = System.nanoTime() - start;
+            wheelNanos += wheel;
+            maxWheelNanos = Math.max(maxWheelNanos, wheel);
+
+            // What a sweeper would do each second instead: look at every entry
+            start = System.nanoTime();
+            long now = clock.get();
+            long oldest = Long.MAX_VALUE;
+            for (LRUCache.Node<Integer, Integer> node : cache.nodes()) {
+                oldest = Math.min(oldest, node.getValue());
+                scanned++;
+            }
+            long scan = System.nanoTime() - start;
+            scanNanos += scan;
+            maxScanNanos = Math.max(maxScanNanos, scan);
+            if (oldest != Long.MAX_VALUE) {
+                // Values are write times in seconds, how long the oldest entry has outlived its deadline
+                maxLateNanos = Math.max(maxLateNanos, now - TimeUnit.SECONDS.toNanos(oldest) - ttlNanos);
+            }
+
+            for (int i = 0; i < perSecond; i++) {
+                cache.put(key++, second);
+            }
+        }
+        clock.addAndGet(ttlNanos + TimeUnit.SECONDS.toNanos(2));
+        cache.cleanUp();
+        long expired = cache.expirationCount();
+        boolean ok = cache.estimatedSize() == 0 && expired == key && maxLateNanos < TimeUnit.SECONDS.toNanos(2);
+        System.out.println(String.format("Expiry cost | live entries: %,d | written: %,d | simulated seconds: %d | expired: %,d",
+                (long) perSecond * ttl, key, seconds, expired));
+        System.out.println(String.format("  timer wheel: %.2f ms per second (max %.2f) | %.0f ns per expired entry | expired at most %.2fs late",
+                wheelNanos / 1e6 / seconds, maxWheelNanos / 1e6, (double) wheelNanos / Math.max(1, expired), maxLateNanos / 1e9));
+        System.out.println(String.format("  full scan:   %.2f ms per second (max %.2f) | %,d entries visited | %s",
+                scanNanos / 1e6 / seconds, maxScanNanos / 1e6, scanned, ok ? "ok" : "FAIL"));
+        return ok;
+    }
+}
@@ -0,0 +1,544 @@
+package multithreaded;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+
+/**
+ * How {@link LRUCache} picks what to evict, chosen with {@link LRUCache.Builder#evictionPolicy}.
+ */
+enum EvictionPolicy {
+    /**
+     * Least recently used first.
+     */
+    LRU {
+        @Override
+        <K, V> CachePolicy<K, V> create(long maximumWeight) {
+            return new LruPolicy<>();
+        }
+    },
+    /**
+     * A small LRU window for new entries in front of a segmented LRU main space, with TinyLFU
+     * deciding whether an entry leaving the window may replace the main space's victim. One-off
+     * keys, such as those of a scan, are then evicted from the window instead of flushing
+     * frequently used entries out of the main space.
+     */
+    WINDOW_TINY_LFU {
+        @Override
+        <K, V> CachePolicy<K, V> create(long maximumWeight) {
+            return new WindowTinyLfuPolicy<>(maximumWeight);
+        }
+    };
+
+    abstract <K, V> CachePolicy<K, V> create(long maximumWeight);
+}
+
+/**
+ * Eviction order of the entries in an {@link LRUCache}. Not thread-safe, the cache only calls it
+ * under its eviction lock; entries are passed in with their policy weight already set.
+ */
+interface CachePolicy<K, V> {
+
+    void add(LRUCache.Node<K, V> node);
+
+    void access(LRUCache.Node<K, V> node);
+
+    void update(LRUCache.Node<K, V> node, int oldWeight);
+
+    void remove(LRUCache.Node<K, V> node);
+
+    /**
+     * Unlinks and returns the entry to evict next, or null if there are none.
+     */
+    LRUCache.Node<K, V> evict();
+
+    List<K> keysInEvictionOrder();
+}
+
+/**
+ * Intrusive doubly linked list of cache nodes, front is the oldest. Linking and unlinking are
+ * O(1) and allocation-free since the links live in the nodes themselves.
+ */
+class AccessOrderDeque<K, V> {
+
+    private final LRUCache.Node<K, V> head;
+
+    AccessOrderDeque() {
+        head = LRUCache.Node.sentinel();
+        head.prev = head;
+        head.next = head;
+    }
+
+    boolean isEmpty() {
+        return head.next == head;
+    }
+
+    LRUCache.Node<K, V> peekFirst() {
+        return isEmpty() ? null : head.next;
+    }
+
+    void linkLast(LRUCache.Node<K, V> node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    void moveToBack(LRUCache.Node<K, V> node) {
+        unlink(node);
+        linkLast(node);
+    }
+
+    void unlink(LRUCache.Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    void addKeysTo(List<K> keys) {
+        for (LRUCache.Node<K, V> node = head.next; node != head; node = node.next) {
+            keys.add(node.getKey());
+        }
+    }
+}
+
+class LruPolicy<K, V> implements CachePolicy<K, V> {
+
+    private final AccessOrderDeque<K, V> order = new AccessOrderDeque<>();
+
+    @Override
+    public void add(LRUCache.Node<K, V> node) {
+        order.linkLast(node);
+    }
+
+    @Override
+    public void access(LRUCache.Node<K, V> node) {
+        order.moveToBack(node);
+    }
+
+    @Override
+    public void update(LRUCache.Node<K, V> node, int oldWeight) {
+        order.moveToBack(node);
+    }
+
+    @Override
+    public void remove(LRUCache.Node<K, V> node) {
+        order.unlink(node);
+    }
+
+    @Override
+    public LRUCache.Node<K, V> evict() {
+        LRUCache.Node<K, V> victim = order.peekFirst();
+        if (Objects.nonNull(victim)) {
+            order.unlink(victim);
+        }
+        return victim;
+    }
+
+    @Override
+    public List<K> keysInEvictionOrder() {
+        List<K> keys = new ArrayList<>();
+        order.addKeysTo(keys);
+        return keys;
+    }
+}
+
+/**
+ * Count-min sketch of how often keys were seen recently, four 4-bit counters per key. Once as
+ * many increments as ten times the expected number of entries have been counted every counter is
+ * halved, so the estimate follows the recent popularity of a key rather than its all-time count.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(long expectedEntries) {
+        int entries = (int) Math.min(Math.max(expectedEntries, 16), 1 << 20);
+        int longs = Integer.highestOneBit(entries - 1) << 1;
+        table = new long[longs];
+        // Sixteen counters per long
+        counterMask = longs * 16 - 1;
+        sampleSize = 10 * entries;
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, counter(indexOf(hash, i)));
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            if (counter(index) < MAX_COUNT) {
+                table[index >>> 4] += 1L << ((index & 15) << 2);
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int counter(int index) {
+        return (int) (table[index >>> 4] >>> ((index & 15) << 2)) & MAX_COUNT;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+/**
+ * W-TinyLFU: new entries go to a window LRU of 1% of the maximum weight. What the window pushes
+ * out moves to the probation segment of the main space while there is room; once the cache is
+ * full it only gets in if the sketch has seen it more often than the main space's own victim,
+ * otherwise it is evicted itself. An entry read again while on probation is promoted to the
+ * protected segment (80% of the main space), whose oldest entries fall back to probation.
+ */
+class WindowTinyLfuPolicy<K, V> implements CachePolicy<K, V> {
+
+    private static final byte WINDOW = 0;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+
+    private final FrequencySketch sketch;
+    private final AccessOrderDeque<K, V> window;
+    private final AccessOrderDeque<K, V> probation;
+    private final AccessOrderDeque<K, V> protectedSegment;
+    private final long maxWindow;
+    private final long maxMain;
+    private final long maxProtected;
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    WindowTinyLfuPolicy(long maximumWeight) {
+        sketch = new FrequencySketch(maximumWeight);
+        window = new AccessOrderDeque<>();
+        probation = new AccessOrderDeque<>();
+        protectedSegment = new AccessOrderDeque<>();
+        maxWindow = Math.max(Math.min(1, maximumWeight), maximumWeight / 100);
+        maxMain = maximumWeight - maxWindow;
+        maxProtected = maxMain * 4 / 5;
+    }
+
+    @Override
+    public void add(LRUCache.Node<K, V> node) {
+        sketch.increment(node.getKey());
+        node.queue = WINDOW;
+        window.linkLast(node);
+        windowWeight += node.policyWeight;
+        admitWhileRoom();
+    }
+
+    @Override
+    public void access(LRUCache.Node<K, V> node) {
+        sketch.increment(node.getKey());
+        if (node.queue == WINDOW) {
+            window.moveToBack(node);
+        } else if (node.queue == PROBATION) {
+            probation.unlink(node);
+            probationWeight -= node.policyWeight;
+            node.queue = PROTECTED;
+            protectedSegment.linkLast(node);
+            protectedWeight += node.policyWeight;
+            demoteOverflow();
+        } else {
+            protectedSegment.moveToBack(node);
+        }
+    }
+
+    @Override
+    public void update(LRUCache.Node<K, V> node, int oldWeight) {
+        int delta = node.policyWeight - oldWeight;
+        if (node.queue == WINDOW) {
+            windowWeight += delta;
+        } else if (node.queue == PROBATION) {
+            probationWeight += delta;
+        } else {
+            protectedWeight += delta;
+        }
+        access(node);
+        admitWhileRoom();
+    }
+
+    @Override
+    public void remove(LRUCache.Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            window.unlink(node);
+            windowWeight -= node.policyWeight;
+        } else if (node.queue == PROBATION) {
+            probation.unlink(node);
+            probationWeight -= node.policyWeight;
+        } else {
+            protectedSegment.unlink(node);
+            protectedWeight -= node.policyWeight;
+        }
+    }
+
+    @Override
+    public LRUCache.Node<K, V> evict() {
+        LRUCache.Node<K, V> candidate = windowWeight > maxWindow ? window.peekFirst() : null;
+        LRUCache.Node<K, V> victim = probation.isEmpty() ? protectedSegment.peekFirst() : probation.peekFirst();
+        if (Objects.isNull(candidate)) {
+            if (Objects.isNull(victim)) {
+                victim = window.peekFirst();
+            }
+        } else if (Objects.isNull(victim) || sketch.frequency(candidate.getKey()) <= sketch.frequency(victim.getKey())) {
+            victim = candidate;
+        } else {
+            // The candidate is admitted in place of the victim
+            remove(candidate);
+            toProbation(candidate);
+        }
+        if (Objects.nonNull(victim)) {
+            remove(victim);
+        }
+        return victim;
+    }
+
+    @Override
+    public List<K> keysInEvictionOrder() {
+        List<K> keys = new ArrayList<>();
+        window.addKeysTo(keys);
+        probation.addKeysTo(keys);
+        protectedSegment.addKeysTo(keys);
+        return keys;
+    }
+
+    // Until the cache is full the window overflow moves to the main space without a contest
+    private void admitWhileRoom() {
+        while (windowWeight > maxWindow) {
+            LRUCache.Node<K, V> oldest = window.peekFirst();
+            if (probationWeight + protectedWeight + oldest.policyWeight > maxMain) {
+                return;
+            }
+            window.unlink(oldest);
+            windowWeight -= oldest.policyWeight;
+            toProbation(oldest);
+        }
+    }
+
+    private void demoteOverflow() {
+        while (protectedWeight > maxProtected) {
+            LRUCache.Node<K, V> oldest = protectedSegment.peekFirst();
+            protectedSegment.unlink(oldest);
+            protectedWeight -= oldest.policyWeight;
+            toProbation(oldest);
+        }
+    }
+
+    private void toProbation(LRUCache.Node<K, V> node) {
+        node.queue = PROBATION;
+        probation.linkLast(node);
+        probationWeight += node.policyWeight;
+    }
+}
+
+/**
+ * Replays a key trace through each eviction policy and reports the hit rates. The trace file has
+ * one request per line, the first whitespace separated token is the key; blank lines and lines
+ * starting with # are skipped. Without a trace a synthetic one is generated: Zipf distributed
+ * online traffic interrupted by batch jobs that scan a large range of keys, each read once.
+ * <pre>
+ *   trace=requests.trace sizes=1000,10000
+ * </pre>
+ */
+public class CacheSimulation {
+
+    private interface SimulatedCache {
+        /**
+         * Returns true on a hit, a miss loads the key.
+         */
+        boolean access(String key);
+    }
+
+    /**
+     * In-cache LFU with exact counts, ties broken by least recent use. Reference point only, the
+     * counts of evicted keys are forgotten.
+     */
+    private static final class LfuCache implements SimulatedCache {
+        private static final class Entry {
+            private final String key;
+            private long count;
+            private long lastAccess;
+
+            private Entry(String key) {
+                this.key = key;
+            }
+        }
+
+        private final int capacity;
+        private final Map<String, Entry> entries;
+        private final TreeSet<Entry> order;
+        private long tick;
+
+        private LfuCache(int capacity) {
+            this.capacity = capacity;
+            entries = new HashMap<>();
+            order = new TreeSet<>(Comparator.comparingLong((Entry entry) -> entry.count)
+                    .thenComparingLong(entry -> entry.lastAccess));
+        }
+
+        @Override
+        public boolean access(String key) {
+            tick++;
+            Entry entry = entries.get(key);
+            boolean hit = Objects.nonNull(entry);
+            if (hit) {
+                order.remove(entry);
+            } else {
+                if (entries.size() == capacity) {
+                    entries.remove(order.pollFirst().key);
+                }
+                entry = new Entry(key);
+                entries.put(key, entry);
+            }
+            entry.count++;
+            entry.lastAccess = tick;
+            order.add(entry);
+            return hit;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        Path trace = options.containsKey("trace") ? Paths.get(options.get("trace")) : syntheticTrace();
+        List<String> keys = readTrace(trace);
+        Set<String> distinct = new HashSet<>(keys);
+        System.out.println(String.format("Trace: %s | requests: %,d | distinct keys: %,d", trace, keys.size(), distinct.size()));
+
+        Map<String, IntFunction<SimulatedCache>> policies = new LinkedHashMap<>();
+        policies.put("LRU", size -> lruCache(size, EvictionPolicy.LRU));
+        policies.put("LFU", LfuCache::new);
+        policies.put("W-TinyLFU", size -> lruCache(size, EvictionPolicy.WINDOW_TINY_LFU));
+        for (String size : options.getOrDefault("sizes", "1000,10000").split(",")) {
+            StringBuilder line = new StringBuilder(String.format("Cache size %,7d |", Integer.parseInt(size)));
+            for (Map.Entry<String, IntFunction<SimulatedCache>> policy : policies.entrySet()) {
+                SimulatedCache cache = policy.getValue().apply(Integer.parseInt(size));
+                long hits = 0;
+                for (String key : keys) {
+                    if (cache.access(key)) {
+                        hits++;
+                    }
+                }
+                line.append(String.format(" %s %.2f%%", policy.getKey(), 100.0 * hits / keys.size()));
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static SimulatedCache lruCache(int size, EvictionPolicy evictionPolicy) {
+        LRUCache<String, String> cache = LRUCache.<String, String>builder()
+                .maximumSize(size)
+                .evictionPolicy(evictionPolicy)
+                .build();
+        return key -> {
+            if (Objects.nonNull(cache.get(key))) {
+                return true;
+            }
+            cache.put(key, key);
+            return false;
+        };
+    }
+
+    private static List<String> readTrace(Path trace) throws IOException {
+        List<String> keys = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(trace, StandardCharsets.UTF_8)) {
+            String line;
+            while (Objects.nonNull(line = reader.readLine())) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int end = 0;
+                while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+                    end++;
+                }
+                keys.add(line.substring(0, end));
+            }
+        }
+        return keys;
+    }
+
+    private static Path syntheticTrace() throws IOException {
+        int requests = 2_000_000;
+        int onlineKeys = 100_000;
+        int scanLength = 50_000;
+        int scanEvery = 200_000;
+        double[] cumulative = new double[onlineKeys];
+        double sum = 0;
+        for (int rank = 0; rank < onlineKeys; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        Random random = new Random(42);
+        Path trace = Files.createTempFile("cache", ".trace");
+        trace.toFile().deleteOnExit();
+        long scanned = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(trace, StandardCharsets.UTF_8)) {
+            writer.write("# zipf online traffic with a " + scanLength + " key batch scan every " + scanEvery + " requests\n");
+            for (int i = 1; i <= requests; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                writer.write("user-" + (rank >= 0 ? rank : -rank - 1) + "\n");
+                if (i % scanEvery == 0) {
+                    for (int j = 0; j < scanLength; j++) {
+                        writer.write("batch-" + scanned++ + "\n");
+                    }
+                }
+            }
+        }
+        return trace;
+    }
+}
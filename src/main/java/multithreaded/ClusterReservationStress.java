@@ -0,0 +1,177 @@
+package multithreaded;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Linearizability stress check for cluster reservations. Every thread adds what it successfully
+ * reserved to a shared "held" counter before releasing it again; if reservations were not atomic
+ * the held amount would at some point exceed the cluster's capacity. The old check-then-subtract
+ * scheme is run the same way for comparison. Finally a multi-dispatcher scheduler places thousands
+ * of jobs and every cluster must end up with exactly its full capacity free.
+ */
+public class ClusterReservationStress {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200_000;
+    private static final int RAM = 64;
+    private static final int CPU = 16;
+
+    interface Reservation {
+        boolean tryReserve(int ram, int cpu);
+
+        void release(int ram, int cpu);
+
+        int freeRam();
+
+        int freeCpu();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Cluster cluster = new Cluster(1, RAM, CPU);
+        long casViolations = stress(new Reservation() {
+            public boolean tryReserve(int ram, int cpu) {
+                return cluster.tryReserve(ram, cpu);
+            }
+
+            public void release(int ram, int cpu) {
+                cluster.release(ram, cpu);
+            }
+
+            public int freeRam() {
+                return cluster.getFreeRam();
+            }
+
+            public int freeCpu() {
+                return cluster.getFreeCpu();
+            }
+        });
+        System.out.println("Packed CAS reservation | violations: " + casViolations
+                + " | free at end: " + cluster.getFreeRam() + "/" + cluster.getFreeCpu());
+
+        AtomicInteger legacyRam = new AtomicInteger(RAM);
+        AtomicInteger legacyCpu = new AtomicInteger(CPU);
+        long legacyViolations = stress(new Reservation() {
+            public boolean tryReserve(int ram, int cpu) {
+                if (legacyRam.get() < ram || legacyCpu.get() < cpu) {
+                    return false;
+                }
+                legacyCpu.addAndGet(-cpu);
+                legacyRam.addAndGet(-ram);
+                return true;
+            }
+
+            public void release(int ram, int cpu) {
+                legacyRam.addAndGet(ram);
+                legacyCpu.addAndGet(cpu);
+            }
+
+            public int freeRam() {
+                return legacyRam.get();
+            }
+
+            public int freeCpu() {
+                return legacyCpu.get();
+            }
+        });
+        System.out.println("Legacy check-then-subtract | violations: " + legacyViolations);
+
+        boolean schedulerOk = stressScheduler();
+        boolean ok = casViolations == 0 && cluster.getFreeRam() == RAM && cluster.getFreeCpu() == CPU && schedulerOk;
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static long stress(Reservation reservation) throws InterruptedException {
+        AtomicLong heldRam = new AtomicLong();
+        AtomicLong heldCpu = new AtomicLong();
+        AtomicLong violations = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    int ram = 1 + random.nextInt(16);
+                    int cpu = 1 + random.nextInt(4);
+                    if (!reservation.tryReserve(ram, cpu)) {
+                        continue;
+                    }
+                    if (heldRam.addAndGet(ram) > RAM || heldCpu.addAndGet(cpu) > CPU
+                            || reservation.freeRam() < 0 || reservation.freeCpu() < 0) {
+                        violations.incrementAndGet();
+                    }
+                    heldRam.addAndGet(-ram);
+                    heldCpu.addAndGet(-cpu);
+                    reservation.release(ram, cpu);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return violations.get();
+    }
+
+    private static boolean stressScheduler() throws InterruptedException {
+        int jobs = 5000;
+        JobSchedulerManager scheduler = new JobSchedulerManager(4);
+        List<Cluster> clusters = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            Cluster cluster = new Cluster(id, RAM, CPU);
+            clusters.add(cluster);
+            scheduler.addCluster(cluster);
+        }
+        CountDownLatch finished = new CountDownLatch(jobs);
+        AtomicLong negativeSeen = new AtomicLong();
+        scheduler.getClusterManager().addReleaseListener(job -> {
+            for (Cluster cluster : clusters) {
+                if (cluster.getFreeRam() < 0 || cluster.getFreeCpu() < 0) {
+                    negativeSeen.incrementAndGet();
+                }
+            }
+            finished.countDown();
+        });
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            scheduler.startClusters();
+            Random random = new Random(7);
+            for (int id = 0; id < jobs; id++) {
+                scheduler.submitJob(new Job(id, 1 + random.nextInt(32), 1 + random.nextInt(8), (long) random.nextInt(3), random.nextInt(5)));
+            }
+            finished.await();
+        } finally {
+            System.setOut(out);
+        }
+
+        boolean restored = true;
+        for (Cluster cluster : clusters) {
+            restored &= cluster.getFreeRam() == RAM && cluster.getFreeCpu() == CPU;
+        }
+        System.out.println("Scheduler with 4 dispatchers | jobs: " + jobs + " | negative capacity seen: "
+                + negativeSeen.get() + " | capacity restored: " + restored);
+        return negativeSeen.get() == 0 && restored;
+    }
+}
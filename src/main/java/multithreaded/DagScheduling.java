@@ -0,0 +1,202 @@
+package multithreaded;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jobs plus the "must finish before" edges between them. Submitted as a whole through
+ * {@link JobSchedulerManager#submitDag(JobDag)}: a job is queued once all of its parents have
+ * completed, so independent branches are placed on clusters in parallel.
+ */
+class JobDag {
+
+    static final class Node {
+        private final Job job;
+        private final JobDag dag;
+        private final List<Node> children;
+        private final AtomicInteger pendingParents;
+
+        private Node(Job job, JobDag dag) {
+            this.job = job;
+            this.dag = dag;
+            children = new ArrayList<>();
+            pendingParents = new AtomicInteger();
+        }
+
+        Job getJob() {
+            return job;
+        }
+
+        List<Node> getChildren() {
+            return children;
+        }
+
+        boolean isReady() {
+            return pendingParents.get() == 0;
+        }
+
+        /**
+         * Marks this job as finished and returns the children that just became schedulable.
+         */
+        List<Node> complete() {
+            List<Node> ready = new ArrayList<>();
+            for (Node child : children) {
+                if (child.pendingParents.decrementAndGet() == 0) {
+                    ready.add(child);
+                }
+            }
+            dag.remaining.countDown();
+            return ready;
+        }
+    }
+
+    private final Map<Job, Node> nodes;
+    private CountDownLatch remaining;
+
+    public JobDag() {
+        nodes = new IdentityHashMap<>();
+    }
+
+    public JobDag add(Job job) {
+        node(job);
+        return this;
+    }
+
+    /**
+     * The child is only scheduled after the parent has completed. Adds either job if needed.
+     */
+    public JobDag dependsOn(Job child, Job parent) {
+        if (child == parent) {
+            throw new IllegalArgumentException("Job " + child.getId() + " cannot depend on itself");
+        }
+        node(parent).children.add(node(child));
+        node(child).pendingParents.incrementAndGet();
+        return this;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public void await() throws InterruptedException {
+        remaining.await();
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return remaining.await(timeout, unit);
+    }
+
+    /**
+     * Checks the graph is acyclic, sets every job's critical path (its own time plus the longest
+     * chain of descendants) and returns the nodes to register, roots first.
+     */
+    List<Node> seal() {
+        if (Objects.nonNull(remaining)) {
+            throw new IllegalStateException("DAG already submitted");
+        }
+        // Kahn's algorithm, the reverse of the resulting order visits children before parents
+        Map<Node, Integer> inDegree = new IdentityHashMap<>();
+        Deque<Node> ready = new ArrayDeque<>();
+        for (Node node : nodes.values()) {
+            inDegree.put(node, node.pendingParents.get());
+            if (node.pendingParents.get() == 0) {
+                ready.add(node);
+            }
+        }
+        List<Node> order = new ArrayList<>(nodes.size());
+        while (!ready.isEmpty()) {
+            Node node = ready.poll();
+            order.add(node);
+            for (Node child : node.children) {
+                if (inDegree.merge(child, -1, Integer::sum) == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+        if (order.size() != nodes.size()) {
+            throw new IllegalArgumentException("Job dependencies contain a cycle");
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Node node = order.get(i);
+            long longestChild = 0;
+            for (Node child : node.children) {
+                longestChild = Math.max(longestChild, child.job.getCriticalPath());
+            }
+            node.job.setCriticalPath(node.job.getTime() + longestChild);
+        }
+        remaining = new CountDownLatch(nodes.size());
+        return order;
+    }
+
+    private Node node(Job job) {
+        return nodes.computeIfAbsent(job, key -> new Node(key, this));
+    }
+}
+
+/**
+ * Makespan of the same DAG with and without critical-path-first ordering: a wide layer of short
+ * independent jobs submitted ahead of two long chains, on clusters that can run four jobs at once.
+ */
+public class DagScheduling {
+
+    public static void main(String[] args) throws InterruptedException {
+        PrintStream out = System.out;
+        long withoutCriticalPath = run(false, out);
+        long withCriticalPath = run(true, out);
+        out.println(String.format("Makespan reduced by %.0f%%", 100.0 * (withoutCriticalPath - withCriticalPath) / withoutCriticalPath));
+    }
+
+    private static long run(boolean criticalPathFirst, PrintStream out) throws InterruptedException {
+        JobSchedulerManager jobSchedulerManager = new JobSchedulerManager();
+        jobSchedulerManager.setCriticalPathFirst(criticalPathFirst);
+        jobSchedulerManager.addCluster(new Cluster(1, 32, 8));
+        jobSchedulerManager.addCluster(new Cluster(2, 32, 8));
+        jobSchedulerManager.startClusters();
+
+        Random random = new Random(42);
+        JobDag dag = new JobDag();
+        int jobId = 0;
+        for (int i = 0; i < 40; i++) {
+            dag.add(new Job(jobId++, 8, 4, 80L + random.nextInt(40), 2));
+        }
+        for (int chain = 0; chain < 2; chain++) {
+            Job previous = null;
+            for (int i = 0; i < 20; i++) {
+                Job job = new Job(jobId++, 8, 4, 80L + random.nextInt(40), 2);
+                dag.add(job);
+                if (Objects.nonNull(previous)) {
+                    dag.dependsOn(job, previous);
+                }
+                previous = job;
+            }
+        }
+
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long start = System.nanoTime();
+        try {
+            jobSchedulerManager.submitDag(dag);
+            dag.await();
+        } finally {
+            System.setOut(out);
+        }
+        long makespan = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        jobSchedulerManager.shutdown();
+        out.println("Critical path first: " + criticalPathFirst + " | jobs: " + dag.size() + " | makespan: " + makespan + "ms");
+        return makespan;
+    }
+}
@@ -0,0 +1,396 @@
+package multithreaded;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Order in which {@link JobSchedulerManager} offers queued jobs for placement. Implementations are
+ * not thread-safe, the scheduler only touches them under its queue lock.
+ */
+interface SchedulingQueue {
+
+    void add(QueuedJob queued);
+
+    /**
+     * The job that should be placed next, or null if the queue is empty.
+     */
+    QueuedJob peek();
+
+    /**
+     * Up to max jobs in the order they would be dispatched, starting with {@link #peek()}.
+     */
+    List<QueuedJob> peek(int max);
+
+    /**
+     * Takes a job returned by one of the peek methods out of the queue to dispatch it.
+     */
+    void remove(QueuedJob queued);
+
+    /**
+     * Puts back a removed job that could not be placed after all, as if it had never been removed.
+     */
+    default void requeue(QueuedJob queued) {
+        add(queued);
+    }
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
+
+/**
+ * Strict priority order (lowest value first), longest critical path and then submission order
+ * within a priority. Low priority jobs wait for as long as higher priority ones keep arriving.
+ */
+class PriorityOrderQueue implements SchedulingQueue {
+
+    private final TreeSet<QueuedJob> jobs = new TreeSet<>(Comparator.comparingInt((QueuedJob queued) -> queued.getJob().getPriority())
+            .thenComparing(Comparator.comparingLong((QueuedJob queued) -> queued.getJob().getCriticalPath()).reversed())
+            .thenComparingLong(QueuedJob::getSequence));
+
+    @Override
+    public void add(QueuedJob queued) {
+        jobs.add(queued);
+    }
+
+    @Override
+    public QueuedJob peek() {
+        return jobs.isEmpty() ? null : jobs.first();
+    }
+
+    @Override
+    public List<QueuedJob> peek(int max) {
+        List<QueuedJob> next = new ArrayList<>(Math.min(max, jobs.size()));
+        Iterator<QueuedJob> iterator = jobs.iterator();
+        while (next.size() < max && iterator.hasNext()) {
+            next.add(iterator.next());
+        }
+        return next;
+    }
+
+    @Override
+    public void remove(QueuedJob queued) {
+        jobs.remove(queued);
+    }
+
+    @Override
+    public int size() {
+        return jobs.size();
+    }
+}
+
+/**
+ * Priority aging, earliest deadline first and weighted fair share across tenants.
+ * <p>
+ * Aging: a job enqueued at time t with priority p sits in band {@code p + t / agingMillis}, so
+ * every {@code agingMillis} a waiting job is worth one priority level more than a job submitted
+ * now. The band never changes after enqueue, which keeps the ordering static and every operation
+ * O(log n) without re-sorting as time passes. Inside a band jobs with a deadline go first, earliest
+ * deadline first, then the longest critical path, then by aging key and submission order.
+ * <p>
+ * Fair share: every tenant has its own ordered queue and a virtual time that advances by
+ * 1 / weight for each job it gets dispatched. The tenant with the lowest virtual time is served
+ * next, so over time tenants get dispatches in proportion to their weights. A tenant that was idle
+ * resumes at the current virtual time and cannot bank credit while it has nothing queued.
+ */
+class FairShareSchedulingQueue implements SchedulingQueue {
+
+    static final String DEFAULT_TENANT = "default";
+
+    private static final class Tenant {
+        private final String name;
+        private final TreeSet<QueuedJob> jobs;
+        private double weight;
+        private double virtualTime;
+
+        private Tenant(String name, Comparator<QueuedJob> order) {
+            this.name = name;
+            jobs = new TreeSet<>(order);
+            weight = 1;
+        }
+    }
+
+    private final long agingMillis;
+    private final Map<String, Tenant> tenants;
+    private final TreeSet<Tenant> active;
+    private double virtualTime;
+    private int size;
+
+    public FairShareSchedulingQueue(long agingMillis) {
+        if (agingMillis <= 0) {
+            throw new IllegalArgumentException("Invalid aging interval: " + agingMillis);
+        }
+        this.agingMillis = agingMillis;
+        tenants = new HashMap<>();
+        active = new TreeSet<>(Comparator.comparingDouble((Tenant tenant) -> tenant.virtualTime)
+                .thenComparing(tenant -> tenant.name));
+    }
+
+    /**
+     * Relative share of dispatches for the tenant, the default weight is 1.
+     */
+    public void setTenantWeight(String tenant, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Invalid weight for tenant " + tenant + ": " + weight);
+        }
+        tenant(tenant).weight = weight;
+    }
+
+    @Override
+    public void add(QueuedJob queued) {
+        Tenant tenant = tenant(queued.getJob().getTenant());
+        if (tenant.jobs.isEmpty()) {
+            tenant.virtualTime = Math.max(tenant.virtualTime, virtualTime);
+            tenant.jobs.add(queued);
+            active.add(tenant);
+        } else {
+            tenant.jobs.add(queued);
+        }
+        size++;
+    }
+
+    @Override
+    public QueuedJob peek() {
+        return active.isEmpty() ? null : active.first().jobs.first();
+    }
+
+    /**
+     * Merges the tenants' queues by the virtual time each job would be dispatched at. Only the
+     * first max tenants can contribute, every later tenant starts at a higher virtual time.
+     */
+    @Override
+    public List<QueuedJob> peek(int max) {
+        List<QueuedJob> next = new ArrayList<>(Math.min(max, size));
+        PriorityQueue<TenantCursor> cursors = new PriorityQueue<>(Comparator.comparingDouble(cursor -> cursor.virtualTime));
+        for (Tenant tenant : active) {
+            if (cursors.size() == max) {
+                break;
+            }
+            cursors.add(new TenantCursor(tenant));
+        }
+        while (next.size() < max && !cursors.isEmpty()) {
+            TenantCursor cursor = cursors.poll();
+            next.add(cursor.jobs.next());
+            if (cursor.jobs.hasNext()) {
+                cursor.virtualTime += 1 / cursor.weight;
+                cursors.add(cursor);
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public void remove(QueuedJob queued) {
+        Tenant tenant = tenants.get(tenantName(queued.getJob().getTenant()));
+        if (Objects.isNull(tenant) || !tenant.jobs.contains(queued)) {
+            return;
+        }
+        active.remove(tenant);
+        tenant.jobs.remove(queued);
+        virtualTime = Math.max(virtualTime, tenant.virtualTime);
+        tenant.virtualTime += 1 / tenant.weight;
+        if (!tenant.jobs.isEmpty()) {
+            active.add(tenant);
+        }
+        size--;
+    }
+
+    /**
+     * Refunds the 1 / weight that remove charged, so a job whose placement failed does not count
+     * against its tenant's share.
+     */
+    @Override
+    public void requeue(QueuedJob queued) {
+        Tenant tenant = tenant(queued.getJob().getTenant());
+        active.remove(tenant);
+        tenant.virtualTime -= 1 / tenant.weight;
+        if (!tenant.jobs.isEmpty()) {
+            active.add(tenant);
+        }
+        add(queued);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private Tenant tenant(String name) {
+        return tenants.computeIfAbsent(tenantName(name), key -> new Tenant(key, jobOrder()));
+    }
+
+    private Comparator<QueuedJob> jobOrder() {
+        return Comparator.comparingLong(this::band)
+                .thenComparingLong(queued -> deadlineOf(queued.getJob()))
+                .thenComparing(Comparator.comparingLong((QueuedJob queued) -> queued.getJob().getCriticalPath()).reversed())
+                .thenComparingLong(this::agingKey)
+                .thenComparingLong(QueuedJob::getSequence);
+    }
+
+    private long band(QueuedJob queued) {
+        return queued.getJob().getPriority() + Math.floorDiv(queued.getEnqueuedAt(), agingMillis);
+    }
+
+    // Same ordering as the band but without the rounding, compared as priority * agingMillis + enqueuedAt
+    private long agingKey(QueuedJob queued) {
+        long boost = queued.getJob().getPriority() * agingMillis;
+        if (boost / agingMillis != queued.getJob().getPriority()) {
+            boost = queued.getJob().getPriority() < 0 ? Long.MIN_VALUE / 2 : Long.MAX_VALUE / 2;
+        }
+        return boost + queued.getEnqueuedAt();
+    }
+
+    private static long deadlineOf(Job job) {
+        return Objects.isNull(job.getDeadline()) ? Long.MAX_VALUE : job.getDeadline();
+    }
+
+    private static String tenantName(String tenant) {
+        return Objects.isNull(tenant) ? DEFAULT_TENANT : tenant;
+    }
+
+    private static final class TenantCursor {
+        private final Iterator<QueuedJob> jobs;
+        private final double weight;
+        private double virtualTime;
+
+        private TenantCursor(Tenant tenant) {
+            jobs = tenant.jobs.iterator();
+            weight = tenant.weight;
+            virtualTime = tenant.virtualTime;
+        }
+    }
+}
+
+/**
+ * Exercises {@link FairShareSchedulingQueue} on its own: per-operation cost as the queue grows to
+ * 1M jobs, a low priority job under a constant stream of high priority work, deadlines within a
+ * band and dispatch shares of weighted tenants.
+ */
+public class FairShareScheduling {
+
+    public static void main(String[] args) {
+        scaling();
+        aging();
+        deadlines();
+        fairShare();
+        requeue();
+    }
+
+    private static void scaling() {
+        Random random = new Random(42);
+        // The first round only warms up the JIT
+        int[] sizes = {100_000, 10_000, 100_000, 1_000_000};
+        for (int round = 0; round < sizes.length; round++) {
+            int size = sizes[round];
+            FairShareSchedulingQueue queue = new FairShareSchedulingQueue(1000);
+            List<QueuedJob> jobs = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Job job = new Job(i, 1, 1, 0L, random.nextInt(5));
+                job.setTenant("tenant-" + random.nextInt(100));
+                if (random.nextBoolean()) {
+                    job.setDeadline((long) random.nextInt(1_000_000));
+                }
+                jobs.add(new QueuedJob(job, i, random.nextInt(1_000_000)));
+            }
+            long start = System.nanoTime();
+            for (QueuedJob job : jobs) {
+                queue.add(job);
+            }
+            long enqueued = System.nanoTime();
+            while (!queue.isEmpty()) {
+                queue.remove(queue.peek());
+            }
+            long dequeued = System.nanoTime();
+            if (round == 0) {
+                continue;
+            }
+            System.out.println(String.format("Queue of %,9d jobs | enqueue %5d ns/op | dequeue %5d ns/op",
+                    size, (enqueued - start) / size, (dequeued - enqueued) / size));
+        }
+    }
+
+    private static void aging() {
+        // One priority 4 job, then a priority 0 job every 10 ms: the old job is served once it has aged 4 bands
+        FairShareSchedulingQueue queue = new FairShareSchedulingQueue(100);
+        queue.add(new QueuedJob(new Job(0, 1, 1, 0L, 4), 0, 0));
+        for (int i = 1; ; i++) {
+            queue.add(new QueuedJob(new Job(i, 1, 1, 0L, 0), i, i * 10L));
+            QueuedJob next = queue.peek();
+            queue.remove(next);
+            if (next.getJob().getId() == 0) {
+                System.out.println("Aging | priority 4 job dispatched after " + (i - 1) + " newer priority 0 jobs, at t=" + i * 10 + "ms");
+                return;
+            }
+        }
+    }
+
+    private static void deadlines() {
+        FairShareSchedulingQueue queue = new FairShareSchedulingQueue(1000);
+        long[] deadlines = {500, 200, 0, 300};
+        for (int i = 0; i < deadlines.length; i++) {
+            Job job = new Job(i, 1, 1, 0L, 1);
+            if (deadlines[i] > 0) {
+                job.setDeadline(deadlines[i]);
+            }
+            queue.add(new QueuedJob(job, i, 0));
+        }
+        StringBuilder order = new StringBuilder("Deadlines | dispatch order within one band:");
+        while (!queue.isEmpty()) {
+            QueuedJob next = queue.peek();
+            queue.remove(next);
+            order.append(" job-").append(next.getJob().getId()).append("(deadline=").append(next.getJob().getDeadline()).append(')');
+        }
+        System.out.println(order);
+    }
+
+    private static void fairShare() {
+        FairShareSchedulingQueue queue = new FairShareSchedulingQueue(1000);
+        queue.setTenantWeight("batch", 1);
+        queue.setTenantWeight("interactive", 3);
+        for (int i = 0; i < 10_000; i++) {
+            Job job = new Job(i, 1, 1, 0L, 0);
+            job.setTenant(i % 2 == 0 ? "batch" : "interactive");
+            queue.add(new QueuedJob(job, i, 0));
+        }
+        Map<String, Integer> dispatched = new HashMap<>();
+        for (int i = 0; i < 4_000; i++) {
+            QueuedJob next = queue.peek();
+            queue.remove(next);
+            dispatched.merge(next.getJob().getTenant(), 1, Integer::sum);
+        }
+        System.out.println("Fair share | weights batch=1 interactive=3 | first 4000 dispatches: " + dispatched);
+    }
+
+    private static void requeue() {
+        // Every "large" job fails placement twice before it fits, which must not cost the tenant its share
+        FairShareSchedulingQueue queue = new FairShareSchedulingQueue(1000);
+        for (int i = 0; i < 10_000; i++) {
+            Job job = new Job(i, 1, 1, 0L, 0);
+            job.setTenant(i % 2 == 0 ? "large" : "small");
+            queue.add(new QueuedJob(job, i, 0));
+        }
+        Map<String, Integer> dispatched = new HashMap<>();
+        Map<QueuedJob, Integer> failures = new HashMap<>();
+        while (dispatched.values().stream().mapToInt(Integer::intValue).sum() < 4_000) {
+            QueuedJob next = queue.peek();
+            queue.remove(next);
+            if (next.getJob().getTenant().equals("large") && failures.merge(next, 1, Integer::sum) <= 2) {
+                queue.requeue(next);
+                continue;
+            }
+            dispatched.merge(next.getJob().getTenant(), 1, Integer::sum);
+        }
+        boolean fair = Math.abs(dispatched.get("large") - dispatched.get("small")) <= 1;
+        System.out.println("Requeue | failed placements are refunded | first 4000 dispatches: " + dispatched + " | " + (fair ? "PASS" : "FAIL"));
+    }
+}
@@ -0,0 +1,254 @@
+package multithreaded;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One share of a job placed across several clusters by {@link ClusterManager#allocateGang(Job)}.
+ * It has the parent's id, time and priority and an equal part of its RAM and CPU. A job body only
+ * runs with the first part, the other parts hold their resources for the job's time.
+ */
+@Getter
+@Setter
+class JobPart extends Job {
+    private final GangPlacement gang;
+    private final int index;
+    private Cluster cluster;
+
+    JobPart(GangPlacement gang, int index, int ram, int cpu) {
+        super(gang.getJob().getId(), ram, cpu, gang.getJob().getTime(), gang.getJob().getPriority());
+        this.gang = gang;
+        this.index = index;
+        if (index == 0) {
+            setBody(gang.getJob().getBody());
+        }
+    }
+}
+
+/**
+ * All parts of one spanning job. The parts run independently; the job counts as completed once
+ * the last of them has given its resources back.
+ */
+@Getter
+class GangPlacement {
+    private final Job job;
+    private List<JobPart> parts;
+    private final AtomicInteger running;
+    private volatile long startedNanos;
+
+    GangPlacement(Job job) {
+        this.job = job;
+        parts = Collections.emptyList();
+        running = new AtomicInteger();
+    }
+
+    /**
+     * Part index of the job split into the given number of equal parts, rounded up.
+     */
+    JobPart part(int index, int parts) {
+        return new JobPart(this, index, (job.getRam() + parts - 1) / parts, (job.getCpu() + parts - 1) / parts);
+    }
+
+    void setParts(List<JobPart> parts) {
+        this.parts = Collections.unmodifiableList(parts);
+    }
+
+    void submit() {
+        submit(job.getTime());
+    }
+
+    /**
+     * Runs every part for the given time instead of the job's; used to resume a gang that was
+     * already running before a restart.
+     */
+    void submit(long remainingMillis) {
+        running.set(parts.size());
+        startedNanos = System.nanoTime();
+        for (JobPart part : parts) {
+            part.getCluster().submit(part, remainingMillis);
+        }
+    }
+
+    /**
+     * Returns true for the call that completes the last part.
+     */
+    boolean partCompleted() {
+        return running.decrementAndGet() == 0;
+    }
+
+    List<Integer> clusterIds() {
+        List<Integer> ids = new ArrayList<>(parts.size());
+        for (JobPart part : parts) {
+            ids.add(part.getCluster().getId());
+        }
+        return ids;
+    }
+}
+
+/**
+ * Concurrent gang and single placements on the same clusters must never leave a gang partially
+ * reserved, overcommit a cluster or block each other; afterwards the scheduler runs jobs that need
+ * more RAM than any one cluster has.
+ */
+public class GangScheduling {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 100_000;
+    private static final int RAM = 64;
+    private static final int CPU = 16;
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean placementOk = stressPlacement();
+        boolean schedulerOk = runScheduler();
+        boolean ok = placementOk && schedulerOk;
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean stressPlacement() throws InterruptedException {
+        ClusterManager clusterManager = new ClusterManager();
+        List<Cluster> clusters = new ArrayList<>();
+        for (int id = 1; id <= 4; id++) {
+            Cluster cluster = new Cluster(id, RAM, CPU);
+            clusters.add(cluster);
+            clusterManager.addCluster(cluster);
+        }
+        AtomicLong gangs = new AtomicLong();
+        AtomicLong singles = new AtomicLong();
+        AtomicLong violations = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    if (random.nextBoolean()) {
+                        Job job = new Job(i, RAM + 1 + random.nextInt(RAM), 1 + random.nextInt(CPU), 0L, 0);
+                        job.setMaxParts(2 + random.nextInt(3));
+                        GangPlacement gang = clusterManager.allocateGang(job);
+                        if (Objects.isNull(gang)) {
+                            continue;
+                        }
+                        gangs.incrementAndGet();
+                        int ram = 0;
+                        int cpu = 0;
+                        for (JobPart part : gang.getParts()) {
+                            ram += part.getRam();
+                            cpu += part.getCpu();
+                        }
+                        if (gang.getParts().size() > job.getMaxParts() || ram < job.getRam() || cpu < job.getCpu()) {
+                            violations.incrementAndGet();
+                        }
+                        check(clusters, violations);
+                        for (JobPart part : gang.getParts()) {
+                            part.getCluster().release(part);
+                        }
+                    } else {
+                        Job job = new Job(i, 1 + random.nextInt(RAM / 2), 1 + random.nextInt(CPU / 2), 0L, 0);
+                        Cluster cluster = clusterManager.allocateResource(job);
+                        if (Objects.isNull(cluster)) {
+                            continue;
+                        }
+                        singles.incrementAndGet();
+                        check(clusters, violations);
+                        cluster.release(job);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        boolean finished = done.await(60, TimeUnit.SECONDS);
+
+        boolean restored = true;
+        for (Cluster cluster : clusters) {
+            restored &= cluster.getFreeRam() == RAM && cluster.getFreeCpu() == CPU;
+        }
+        System.out.println("Concurrent placement | threads: " + THREADS + " | gangs: " + gangs.get() + " | singles: " + singles.get()
+                + " | violations: " + violations.get() + " | finished: " + finished + " | capacity restored: " + restored);
+        clusterManager.shutdown();
+        return finished && violations.get() == 0 && restored;
+    }
+
+    private static void check(List<Cluster> clusters, AtomicLong violations) {
+        for (Cluster cluster : clusters) {
+            if (cluster.getFreeRam() < 0 || cluster.getFreeCpu() < 0) {
+                violations.incrementAndGet();
+            }
+        }
+    }
+
+    private static boolean runScheduler() throws InterruptedException {
+        JobSchedulerManager jobSchedulerManager = new JobSchedulerManager(2);
+        List<Cluster> clusters = new ArrayList<>();
+        for (int id = 1; id <= 4; id++) {
+            Cluster cluster = new Cluster(id, RAM, CPU);
+            clusters.add(cluster);
+            jobSchedulerManager.addCluster(cluster);
+        }
+        int jobs = 200;
+        Random random = new Random(42);
+        List<Job> submitted = new ArrayList<>(jobs);
+        for (int id = 0; id < jobs; id++) {
+            Job job;
+            if (id % 4 == 0) {
+                // Up to three clusters' worth of RAM
+                job = new Job(id, RAM + 1 + random.nextInt(2 * RAM), 2 + random.nextInt(CPU), 10L + random.nextInt(20), random.nextInt(5));
+                job.setMaxParts(4);
+            } else {
+                job = new Job(id, 1 + random.nextInt(RAM / 2), 1 + random.nextInt(CPU / 2), 10L + random.nextInt(20), random.nextInt(5));
+            }
+            submitted.add(job);
+        }
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long start = System.nanoTime();
+        MetricsSnapshot snapshot;
+        try {
+            jobSchedulerManager.startClusters();
+            for (Job job : submitted) {
+                jobSchedulerManager.submitJob(job);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            do {
+                Thread.sleep(10);
+                snapshot = jobSchedulerManager.getMetrics().snapshot();
+            } while (snapshot.getCompleted() < jobs && System.nanoTime() < deadline);
+            jobSchedulerManager.shutdown();
+            jobSchedulerManager.awaitTermination(10, TimeUnit.SECONDS);
+        } finally {
+            System.setOut(out);
+        }
+
+        boolean restored = true;
+        for (Cluster cluster : clusters) {
+            restored &= cluster.getFreeRam() == RAM && cluster.getFreeCpu() == CPU;
+        }
+        System.out.println("Scheduler | jobs: " + jobs + " (" + jobs / 4 + " larger than any cluster) | completed: " + snapshot.getCompleted()
+                + " | elapsed: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms | capacity restored: " + restored);
+        return snapshot.getCompleted() == jobs && restored;
+    }
+}
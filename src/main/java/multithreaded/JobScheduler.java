@@ -1,80 +1,486 @@
 package multithreaded;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
 
+/**
+ * Threads shared by every {@link Cluster}: one timer that completes simulated jobs once their
+ * time is up, and a bounded pool that runs real job bodies. No thread is parked per job, so the
+ * thread count stays the same however many jobs are in flight.
+ */
+class ClusterRuntime {
+
+    private static final ClusterRuntime SHARED = new ClusterRuntime(Runtime.getRuntime().availableProcessors());
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService workers;
+
+    public ClusterRuntime(int workerThreads) {
+        timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("cluster-timer"));
+        workers = Executors.newFixedThreadPool(workerThreads, daemonThreads("cluster-worker"));
+    }
+
+    public static ClusterRuntime shared() {
+        return SHARED;
+    }
+
+    void completeAfter(long millis, Runnable completion) {
+        timer.schedule(completion, millis, TimeUnit.MILLISECONDS);
+    }
+
+    void execute(Runnable body) {
+        workers.execute(body);
+    }
+
+    public void shutdown() {
+        timer.shutdown();
+        workers.shutdown();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
+
+/**
+ * Free RAM and CPU are packed into one long (RAM in the high 32 bits, CPU in the low 32 bits) so
+ * that both are checked and reserved together by a single CAS: concurrent schedulers can never
+ * over-commit a cluster or drive either resource negative.
+ */
 @Getter
 @Setter
 class Cluster {
     private Integer id;
-    private AtomicInteger ram;
-    private AtomicInteger cpu;
-    private ExecutorService jobExecutor;
+    private final int totalRam;
+    private final int totalCpu;
+    private final AtomicLong free;
+    private final ClusterRuntime runtime;
+    private final AtomicInteger inFlight;
+    private volatile boolean shutdown;
+    private Consumer<Job> onRelease;
+    // Told how long each job held its resources, in nanoseconds
+    private ObjLongConsumer<Job> onComplete;
 
     public Cluster(Integer id, Integer ram, Integer cpu) {
+        this(id, ram, cpu, ClusterRuntime.shared());
+    }
+
+    public Cluster(Integer id, Integer ram, Integer cpu, ClusterRuntime runtime) {
+        if (ram < 0 || cpu < 0) {
+            throw new IllegalArgumentException("Cluster resources must not be negative");
+        }
         this.id = id;
-        this.ram = new AtomicInteger(ram);
-        this.cpu = new AtomicInteger(cpu);
-        jobExecutor = Executors.newCachedThreadPool();
+        this.totalRam = ram;
+        this.totalCpu = cpu;
+        this.free = new AtomicLong(pack(ram, cpu));
+        this.runtime = runtime;
+        inFlight = new AtomicInteger();
+        onRelease = job -> {
+        };
+        onComplete = (job, runNanos) -> {
+        };
     }
 
+    /**
+     * Runs the job on this cluster's reserved resources. A job without a body is simulated: it just
+     * holds its resources for {@code time} ms on the shared timer. A job with a body runs it on the
+     * shared worker pool and releases its resources when the body returns.
+     */
     public void submit(Job job) {
-        jobExecutor.submit(() -> {
+        submit(job, job.getTime());
+    }
+
+    /**
+     * Same as {@link #submit(Job)}, but a simulated job only holds its resources for the given
+     * time; used to resume jobs that were already running before a restart.
+     */
+    void submit(Job job, long remainingMillis) {
+        if (shutdown) {
+            throw new IllegalStateException("Cluster " + id + " is shut down");
+        }
+        inFlight.incrementAndGet();
+        long started = System.nanoTime();
+        Runnable body = job.getBody();
+        if (Objects.isNull(body)) {
+            runtime.completeAfter(remainingMillis, () -> complete(job, started));
+            return;
+        }
+        runtime.execute(() -> {
             try {
-                Thread.sleep(job.getTime());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                body.run();
+            } catch (RuntimeException e) {
+                System.out.println("Job_id: " + job.getId() + " failed on cluster_id: " + id + " | " + e);
             } finally {
-                ram.addAndGet(job.getRam());
-                cpu.addAndGet(job.getCpu());
+                complete(job, started);
             }
         });
     }
+
+    /**
+     * Stops accepting new jobs, jobs already running still complete and release their resources.
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight.get() > 0) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void complete(Job job, long started) {
+        try {
+            onComplete.accept(job, System.nanoTime() - started);
+            release(job);
+        } finally {
+            if (inFlight.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    public boolean tryReserve(int ram, int cpu) {
+        while (true) {
+            long current = free.get();
+            int freeRam = ramOf(current);
+            int freeCpu = cpuOf(current);
+            if (freeRam < ram || freeCpu < cpu) {
+                return false;
+            }
+            if (free.compareAndSet(current, pack(freeRam - ram, freeCpu - cpu))) {
+                return true;
+            }
+        }
+    }
+
+    public void release(Job job) {
+        release(job.getRam(), job.getCpu());
+        onRelease.accept(job);
+    }
+
+    void release(int ram, int cpu) {
+        while (true) {
+            long current = free.get();
+            int freeRam = ramOf(current) + ram;
+            int freeCpu = cpuOf(current) + cpu;
+            if (freeRam > totalRam || freeCpu > totalCpu) {
+                throw new IllegalStateException("Cluster " + id + " released more than it reserved");
+            }
+            if (free.compareAndSet(current, pack(freeRam, freeCpu))) {
+                return;
+            }
+        }
+    }
+
+    public int getFreeRam() {
+        return ramOf(free.get());
+    }
+
+    public int getFreeCpu() {
+        return cpuOf(free.get());
+    }
+
+    public boolean fits(Job job) {
+        long current = free.get();
+        return ramOf(current) >= job.getRam() && cpuOf(current) >= job.getCpu();
+    }
+
+    /**
+     * How many copies of the job fit into the free resources, read in one consistent snapshot.
+     */
+    public int fitsTimes(Job job) {
+        long current = free.get();
+        int byRam = job.getRam() == 0 ? Integer.MAX_VALUE : ramOf(current) / job.getRam();
+        int byCpu = job.getCpu() == 0 ? Integer.MAX_VALUE : cpuOf(current) / job.getCpu();
+        return Math.min(byRam, byCpu);
+    }
+
+    private static long pack(int ram, int cpu) {
+        return ((long) ram << 32) | (cpu & 0xFFFFFFFFL);
+    }
+
+    private static int ramOf(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int cpuOf(long packed) {
+        return (int) packed;
+    }
 }
 
 
+/**
+ * Places jobs through a pluggable {@link PlacementPolicy} that indexes clusters by free capacity,
+ * so finding a cluster is logarithmic instead of a scan over the fleet. Clusters are spread
+ * round-robin over shards, each with its own lock and policy index, so concurrent dispatchers only
+ * contend when they search the same shard. A placement starts at the calling thread's home shard
+ * and moves on to the others if nothing there fits; the policy's choice is therefore per shard,
+ * and a manager with one shard applies it to the whole fleet.
+ */
 @Getter
 @Setter
 class ClusterManager {
 
+    private static final class Shard {
+        private final List<Cluster> clusters = new ArrayList<>();
+        // Guarded by this
+        private PlacementPolicy placementPolicy;
+
+        private Shard(PlacementPolicy placementPolicy) {
+            this.placementPolicy = placementPolicy;
+        }
+    }
+
     private List<Cluster> clusters;
 
     private ExecutorService manager;
 
+    private final List<Consumer<Job>> releaseListeners;
+
+    private final Shard[] shards;
+
+    private final Map<Integer, Shard> shardOf;
+
     public ClusterManager() {
-        clusters = new ArrayList<>();
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ClusterManager(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shards must be positive: " + shards);
+        }
+        clusters = new CopyOnWriteArrayList<>();
         manager = Executors.newSingleThreadExecutor();
+        releaseListeners = new CopyOnWriteArrayList<>();
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(new FirstFitPlacement());
+        }
+        shardOf = new ConcurrentHashMap<>();
     }
 
     public void addCluster(Cluster cluster) {
-        clusters.add(cluster);
+        Shard shard = shards[Math.floorMod(cluster.getId(), shards.length)];
+        cluster.setOnRelease(job -> onRelease(shard, cluster, job));
+        synchronized (shard) {
+            shard.placementPolicy.add(cluster);
+            shard.clusters.add(cluster);
+            shardOf.put(cluster.getId(), shard);
+            clusters.add(cluster);
+        }
+    }
+
+    /**
+     * Swaps the placement policy, giving every shard a fresh index of the clusters added so far.
+     */
+    public void setPlacementPolicy(Supplier<PlacementPolicy> placementPolicy) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                PlacementPolicy policy = placementPolicy.get();
+                for (Cluster cluster : shard.clusters) {
+                    policy.add(cluster);
+                }
+                shard.placementPolicy = policy;
+            }
+        }
     }
 
-    private Cluster getAvailableResource(Job job) {
-        Optional<Cluster> availableCluster = clusters.stream().filter(cluster -> cluster.getRam().get() >= job.getRam() && cluster.getCpu().get() >= job.getCpu()).findFirst();
-        return availableCluster.orElse(null);
+    /**
+     * Listeners run on the releasing cluster's thread right after a job gave its resources back.
+     */
+    public void addReleaseListener(Consumer<Job> listener) {
+        releaseListeners.add(listener);
     }
 
+    /**
+     * Whether the job fits on one cluster or, if it may span clusters, on a gang of them. Only
+     * reads free capacity, nothing is reserved, so a probe never makes a concurrent placement fail.
+     * A gang split into n parts fits if some cluster takes one part, which the policies answer, and
+     * the clusters together have room for n of them; the second check walks the clusters until
+     * enough room is found.
+     */
+    public boolean canAllocate(Job job) {
+        if (fitsAnywhere(job)) {
+            return true;
+        }
+        for (int parts = 2; parts <= job.getMaxParts(); parts++) {
+            JobPart part = new GangPlacement(job).part(0, parts);
+            if (!fitsAnywhere(part)) {
+                continue;
+            }
+            int room = 0;
+            for (Cluster cluster : clusters) {
+                room += Math.min(cluster.fitsTimes(part), parts);
+                if (room >= parts) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean fitsAnywhere(Job job) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (Objects.nonNull(shard.placementPolicy.select(job))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reserves the job's RAM and CPU on the cluster chosen by the placement policy, or returns null
+     * if no cluster fits. Safe to call from any number of threads.
+     */
     public Cluster allocateResource(Job job) {
-        Cluster availableCluster = getAvailableResource(job);
-        if (Objects.isNull(availableCluster)) {
-            return null;
+        int home = (int) (Thread.currentThread().getId() % shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            Cluster cluster = reserve(shards[(home + i) % shards.length], job);
+            if (Objects.nonNull(cluster)) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reserves a job that may span up to {@code job.getMaxParts()} clusters, trying 2, 3, ...
+     * equal parts until every part fits somewhere. Each part is one CAS reservation on its cluster
+     * and the parts reserved so far are released again if a later one doesn't fit, so either all
+     * parts hold their resources or none do. No cluster or shard is ever held while waiting for
+     * another, which is what keeps concurrent gang placements from deadlocking.
+     */
+    public GangPlacement allocateGang(Job job) {
+        for (int parts = 2; parts <= job.getMaxParts(); parts++) {
+            GangPlacement gang = new GangPlacement(job);
+            List<JobPart> reserved = new ArrayList<>(parts);
+            for (int i = 0; i < parts; i++) {
+                JobPart part = gang.part(i, parts);
+                Cluster cluster = allocateResource(part);
+                if (Objects.isNull(cluster)) {
+                    break;
+                }
+                part.setCluster(cluster);
+                reserved.add(part);
+            }
+            if (reserved.size() == parts) {
+                gang.setParts(reserved);
+                return gang;
+            }
+            rollback(reserved);
+        }
+        return null;
+    }
+
+    private Cluster reserve(Shard shard, Job job) {
+        synchronized (shard) {
+            while (true) {
+                Cluster cluster = shard.placementPolicy.select(job);
+                if (Objects.isNull(cluster)) {
+                    return null;
+                }
+                boolean reserved = cluster.tryReserve(job.getRam(), job.getCpu());
+                shard.placementPolicy.update(cluster);
+                if (reserved) {
+                    return cluster;
+                }
+            }
+        }
+    }
+
+    private void rollback(List<JobPart> parts) {
+        for (JobPart part : parts) {
+            part.getCluster().release(part.getRam(), part.getCpu());
+            Shard shard = shardOf.get(part.getCluster().getId());
+            synchronized (shard) {
+                shard.placementPolicy.update(part.getCluster());
+            }
+        }
+    }
+
+    /**
+     * Reserves the job's resources on the given cluster regardless of the placement policy, used
+     * to restore reservations recorded before a restart.
+     */
+    public void restoreReservation(Cluster cluster, Job job) {
+        Shard shard = shardOf.get(cluster.getId());
+        synchronized (shard) {
+            if (!cluster.tryReserve(job.getRam(), job.getCpu())) {
+                throw new IllegalStateException("Cluster " + cluster.getId() + " cannot hold recovered job " + job.getId());
+            }
+            shard.placementPolicy.update(cluster);
+        }
+    }
+
+    public Cluster getCluster(int id) {
+        for (Cluster cluster : clusters) {
+            if (cluster.getId() == id) {
+                return cluster;
+            }
+        }
+        throw new IllegalArgumentException("Cluster not found: " + id);
+    }
+
+    public void shutdown() {
+        for (Cluster cluster : clusters) {
+            cluster.shutdown();
+        }
+        manager.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Cluster cluster : clusters) {
+            if (!cluster.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onRelease(Shard shard, Cluster cluster, Job job) {
+        synchronized (shard) {
+            shard.placementPolicy.update(cluster);
+        }
+        for (Consumer<Job> listener : releaseListeners) {
+            listener.accept(job);
         }
-        availableCluster.getCpu().addAndGet(-job.getCpu());
-        availableCluster.getRam().addAndGet(-job.getRam());
-        return availableCluster;
     }
 
 }
 
-@AllArgsConstructor
 @Getter
 @Setter
 class Job {
@@ -83,48 +489,456 @@ class Job {
     private Integer cpu;
     private Long time;
     private Integer priority;
+    private Runnable body;
+    // Only used by FairShareSchedulingQueue: fair share group, and the wall clock deadline in epoch millis
+    private String tenant;
+    private Long deadline;
+    // Own time plus the longest chain of dependent jobs, set when submitted as part of a JobDag
+    private long criticalPath;
+    // Up to how many clusters the job may be split across when it doesn't fit on a single one
+    private int maxParts = 1;
+
+    public Job(Integer id, Integer ram, Integer cpu, Long time, Integer priority) {
+        this.id = id;
+        this.ram = ram;
+        this.cpu = cpu;
+        this.time = time;
+        this.priority = priority;
+    }
+}
+
+/**
+ * Queue entry of a job waiting for placement. The sequence breaks ties in submission order, the
+ * enqueue time is what priority aging is measured from.
+ */
+@Getter
+class QueuedJob {
+    private final Job job;
+    private final long sequence;
+    private final long enqueuedAt;
+    private final long queuedNanos;
+    private int bypassed;
+
+    QueuedJob(Job job, long sequence) {
+        this(job, sequence, System.currentTimeMillis());
+    }
+
+    QueuedJob(Job job, long sequence, long enqueuedAt) {
+        this.job = job;
+        this.sequence = sequence;
+        this.enqueuedAt = enqueuedAt;
+        queuedNanos = System.nanoTime();
+    }
+
+    void bypass() {
+        bypassed++;
+    }
 }
 
+/**
+ * Jobs are dispatched as soon as they fit: the dispatcher sleeps on a condition that is signalled
+ * by new submissions and by clusters releasing resources, never on a timer.
+ * <p>
+ * When the highest priority job doesn't fit anywhere, up to {@code backfillWindow} jobs queued
+ * behind it may be placed first if they fit right now. Once the head job has been overtaken
+ * {@code maxHeadBypass} times backfilling stops, so the capacity that frees up next goes to it.
+ * <p>
+ * Several dispatcher threads may place jobs in parallel: they only hold the queue lock to claim a
+ * job, placing it is a short index lookup plus a CAS reservation on the cluster.
+ * <p>
+ * Which job is at the head is up to the {@link SchedulingQueue}, by default a
+ * {@link FairShareSchedulingQueue} that ages waiting jobs by one priority level per
+ * {@code DEFAULT_AGING_MILLIS} so that low priority jobs cannot starve.
+ */
 @Getter
 @Setter
 class JobSchedulerManager {
 
+    private static final int DEFAULT_BACKFILL_WINDOW = 16;
+    private static final int DEFAULT_MAX_HEAD_BYPASS = 32;
+    private static final int DEFAULT_DISPATCHERS = 3;
+    private static final long DEFAULT_AGING_MILLIS = 5000;
+
     private final ClusterManager clusterManager;
 
-    private PriorityBlockingQueue<Job> q;
+    private final SchedulerMetrics metrics;
+
+    private final SchedulingQueue q;
+
+    private final Map<Job, JobDag.Node> dagJobs;
+
+    private volatile boolean criticalPathFirst;
+
+    private volatile SchedulerJournal journal;
+
+    private final AtomicLong submitted;
+
+    private final ReentrantLock lock;
+
+    private final Condition workAvailable;
+
+    private int backfillWindow;
+
+    private int maxHeadBypass;
+
+    private final int dispatchers;
 
     private ExecutorService executorService;
 
     public JobSchedulerManager() {
-        q = new PriorityBlockingQueue<>(10, (p, q) -> p.getPriority() - q.getPriority());
+        this(DEFAULT_DISPATCHERS);
+    }
+
+    public JobSchedulerManager(int dispatchers) {
+        this(dispatchers, new FairShareSchedulingQueue(DEFAULT_AGING_MILLIS));
+    }
+
+    public JobSchedulerManager(int dispatchers, SchedulingQueue queue) {
+        if (dispatchers <= 0) {
+            throw new IllegalArgumentException("Invalid dispatcher count: " + dispatchers);
+        }
+        this.dispatchers = dispatchers;
+        q = queue;
+        submitted = new AtomicLong();
+        lock = new ReentrantLock();
+        workAvailable = lock.newCondition();
+        backfillWindow = DEFAULT_BACKFILL_WINDOW;
+        maxHeadBypass = DEFAULT_MAX_HEAD_BYPASS;
         clusterManager = new ClusterManager();
-        executorService = Executors.newFixedThreadPool(3);
+        dagJobs = new ConcurrentHashMap<>();
+        criticalPathFirst = true;
+        clusterManager.addReleaseListener(this::onJobReleased);
+        metrics = new SchedulerMetrics(clusterManager);
+        executorService = Executors.newFixedThreadPool(dispatchers);
     }
 
+    /**
+     * With a journal, returns once the submission is durable; concurrent submitters share one
+     * fsync through the journal's group commit.
+     */
     public void submitJob(Job job) throws InterruptedException {
-        q.add(job);
+        long lsn = enqueue(job, System.currentTimeMillis());
+        if (Objects.nonNull(journal)) {
+            journal.awaitDurable(lsn);
+        }
+    }
+
+    /**
+     * Restores the queue, the cluster reservations and the pending edges of {@link JobDag}s
+     * recorded in the journal, then logs every submission, placement and completion to it. Call
+     * after adding the clusters and before {@link #startClusters()}. Jobs that were running are
+     * resumed for whatever remains of their time; jobs of a DAG still wait for the parents that had
+     * not completed, as one DAG of everything left.
+     */
+    public void recover(SchedulerJournal journal) {
+        JournalState state = journal.state();
+        restoreDag(state);
+        List<GangPlacement> gangs = new ArrayList<>();
+        for (JournalState.Placement placement : state.getRunning()) {
+            if (placement.isGang()) {
+                gangs.add(restoreGang(placement));
+            } else {
+                clusterManager.restoreReservation(clusterManager.getCluster(placement.getClusterIds().get(0)), placement.getSubmission().getJob());
+            }
+        }
+        lock.lock();
+        try {
+            // Before any resumed job can complete, so that its completion is logged
+            this.journal = journal;
+            for (JournalState.Submission submission : state.getQueued()) {
+                queue(submission.getJob(), submission.getSubmittedAt());
+            }
+        } finally {
+            lock.unlock();
+        }
+        long now = System.currentTimeMillis();
+        int gang = 0;
+        for (JournalState.Placement placement : state.getRunning()) {
+            Job job = placement.getSubmission().getJob();
+            long remaining = Math.max(0, placement.getPlacedAt() + job.getTime() - now);
+            if (placement.isGang()) {
+                gangs.get(gang++).submit(remaining);
+            } else {
+                clusterManager.getCluster(placement.getClusterIds().get(0)).submit(job, remaining);
+            }
+        }
+    }
+
+    // Reserves every part on the cluster it ran on
+    private GangPlacement restoreGang(JournalState.Placement placement) {
+        List<Integer> clusterIds = placement.getClusterIds();
+        int parts = clusterIds.size();
+        GangPlacement gang = new GangPlacement(placement.getSubmission().getJob());
+        List<JobPart> reserved = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            JobPart part = gang.part(i, parts);
+            part.setCluster(clusterManager.getCluster(clusterIds.get(i)));
+            clusterManager.restoreReservation(part.getCluster(), part);
+            reserved.add(part);
+        }
+        gang.setParts(reserved);
+        return gang;
+    }
+
+    private void restoreDag(JournalState state) {
+        if (state.getWaiting().isEmpty()) {
+            return;
+        }
+        Map<Integer, Job> jobs = new HashMap<>();
+        for (JournalState.Submission submission : state.getQueued()) {
+            jobs.put(submission.getJob().getId(), submission.getJob());
+        }
+        for (JournalState.Placement placement : state.getRunning()) {
+            jobs.put(placement.getSubmission().getJob().getId(), placement.getSubmission().getJob());
+        }
+        for (JournalState.Waiting waiting : state.getWaiting()) {
+            jobs.put(waiting.getSubmission().getJob().getId(), waiting.getSubmission().getJob());
+        }
+        JobDag dag = new JobDag();
+        for (JournalState.Waiting waiting : state.getWaiting()) {
+            Job child = waiting.getSubmission().getJob();
+            for (int parentId : waiting.getParents()) {
+                Job parent = jobs.get(parentId);
+                if (Objects.isNull(parent)) {
+                    throw new IllegalStateException("Job " + child.getId() + " waits for job " + parentId + " that is not in the journal");
+                }
+                dag.dependsOn(child, parent);
+            }
+        }
+        for (JobDag.Node node : dag.seal()) {
+            if (!criticalPathFirst) {
+                node.getJob().setCriticalPath(0);
+            }
+            dagJobs.put(node.getJob(), node);
+        }
+    }
+
+    /**
+     * Queues the jobs of the DAG that have no parents; every other job is queued by the release of
+     * its last parent. Within a priority band, jobs on a longer critical path go first unless
+     * critical-path-first ordering is turned off.
+     * <p>
+     * With a journal, the whole DAG is logged as one event and this returns once it is durable; a
+     * recovering scheduler gets back every job that had not completed, with its pending edges.
+     */
+    public void submitDag(JobDag dag) throws InterruptedException {
+        List<JobDag.Node> nodes = dag.seal();
+        Map<Job, List<Integer>> parents = new LinkedHashMap<>();
+        for (JobDag.Node node : nodes) {
+            if (!criticalPathFirst) {
+                node.getJob().setCriticalPath(0);
+            }
+            dagJobs.put(node.getJob(), node);
+            parents.put(node.getJob(), new ArrayList<>());
+        }
+        for (JobDag.Node node : nodes) {
+            for (JobDag.Node child : node.getChildren()) {
+                parents.get(child.getJob()).add(node.getJob().getId());
+            }
+        }
+        long submittedAt = System.currentTimeMillis();
+        long lsn = 0;
+        lock.lock();
+        try {
+            if (Objects.nonNull(journal)) {
+                lsn = journal.submittedDag(parents, submittedAt);
+            }
+            for (JobDag.Node node : nodes) {
+                if (node.isReady()) {
+                    queue(node.getJob(), submittedAt);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (Objects.nonNull(journal)) {
+            journal.awaitDurable(lsn);
+        }
+    }
+
+    public void setCriticalPathFirst(boolean criticalPathFirst) {
+        this.criticalPathFirst = criticalPathFirst;
+    }
+
+    // Returns the journal's log sequence number for the submission, or 0 without a journal
+    private long enqueue(Job job, long submittedAt) {
+        lock.lock();
+        try {
+            // Logged under the queue lock so that a submit always precedes the job's placement in the log
+            long lsn = Objects.isNull(journal) ? 0 : journal.submitted(job, submittedAt);
+            queue(job, submittedAt);
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Guarded by lock
+    private void queue(Job job, long submittedAt) {
+        q.add(new QueuedJob(job, submitted.getAndIncrement(), submittedAt));
+        metrics.jobSubmitted();
+        workAvailable.signal();
     }
 
     public void addCluster(Cluster cluster) {
-        clusterManager.getClusters().add(cluster);
+        cluster.setOnComplete((job, runNanos) -> {
+            // A gang's run time is recorded once, when its last part completes
+            if (!(job instanceof JobPart)) {
+                metrics.jobCompleted(runNanos);
+            }
+        });
+        clusterManager.addCluster(cluster);
+    }
+
+    public SchedulerMetrics getMetrics() {
+        return metrics;
     }
 
     public void startClusters() {
-        executorService.submit(() -> {
-            while (true) {
-                Job job = q.take();
-                Cluster availableCluster = null;
-                while (true) {
-                    availableCluster = clusterManager.allocateResource(job);
-                    if (Objects.nonNull(availableCluster)) {
-                        break;
+        for (int i = 0; i < dispatchers; i++) {
+            executorService.submit(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    QueuedJob next = awaitPlaceableJob();
+                    Job job = next.getJob();
+                    Cluster availableCluster = clusterManager.allocateResource(job);
+                    if (Objects.isNull(availableCluster) && job.getMaxParts() > 1) {
+                        GangPlacement gang = clusterManager.allocateGang(job);
+                        if (Objects.nonNull(gang)) {
+                            metrics.jobDispatched(System.nanoTime() - next.getQueuedNanos());
+                            if (Objects.nonNull(journal)) {
+                                journal.placedGang(job, gang.clusterIds(), System.currentTimeMillis());
+                            }
+                            gang.submit();
+                            System.out.println("Job_id: " + job.getId() + " running on cluster_ids: " + gang.clusterIds());
+                            continue;
+                        }
+                    }
+                    if (Objects.isNull(availableCluster)) {
+                        // Another dispatcher took the capacity between the check and the reservation
+                        requeue(next);
+                        continue;
                     }
-                    Thread.sleep(100);
+                    metrics.jobDispatched(System.nanoTime() - next.getQueuedNanos());
+                    if (Objects.nonNull(journal)) {
+                        journal.placed(job, availableCluster.getId(), System.currentTimeMillis());
+                    }
+                    availableCluster.submit(job);
+                    System.out.println("Job_id: " + job.getId() + " running on cluster_id: " + availableCluster.getId());
                 }
-                availableCluster.submit(job);
-                System.out.println("Job_id: " + job.getId() + " running on cluster_id: " + availableCluster.getId());
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Stops the dispatchers and the clusters; jobs that are already running still complete, jobs
+     * still queued are dropped.
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+        clusterManager.shutdown();
+        metrics.stopDump();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return executorService.awaitTermination(timeout, unit)
+                && clusterManager.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private QueuedJob awaitPlaceableJob() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            QueuedJob next;
+            while ((next = claimPlaceableJob()) == null) {
+                workAvailable.await();
             }
-        });
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Guarded by lock
+    private QueuedJob claimPlaceableJob() {
+        return claimPlaceableJob(q, clusterManager, backfillWindow, maxHeadBypass);
+    }
+
+    /**
+     * Takes the head of the queue if it fits on some cluster, otherwise the first of the next
+     * backfillWindow jobs that fits, unless the head has already been bypassed maxHeadBypass times.
+     */
+    static QueuedJob claimPlaceableJob(SchedulingQueue q, ClusterManager clusterManager, int backfillWindow, int maxHeadBypass) {
+        QueuedJob head = q.peek();
+        if (Objects.isNull(head)) {
+            return null;
+        }
+        if (clusterManager.canAllocate(head.getJob())) {
+            q.remove(head);
+            return head;
+        }
+        if (head.getBypassed() >= maxHeadBypass) {
+            return null;
+        }
+        List<QueuedJob> candidates = q.peek(backfillWindow + 1);
+        for (QueuedJob candidate : candidates.subList(1, candidates.size())) {
+            if (clusterManager.canAllocate(candidate.getJob())) {
+                q.remove(candidate);
+                head.bypass();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void requeue(QueuedJob queued) {
+        lock.lock();
+        try {
+            q.requeue(queued);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onJobReleased(Job released) {
+        Job job = released;
+        if (released instanceof JobPart) {
+            GangPlacement gang = ((JobPart) released).getGang();
+            if (!gang.partCompleted()) {
+                signalWork();
+                return;
+            }
+            metrics.jobCompleted(System.nanoTime() - gang.getStartedNanos());
+            job = gang.getJob();
+        }
+        if (Objects.nonNull(journal)) {
+            journal.completed(job);
+        }
+        JobDag.Node node = dagJobs.remove(job);
+        if (Objects.nonNull(node)) {
+            List<JobDag.Node> ready = node.complete();
+            if (!ready.isEmpty()) {
+                // Already journaled: the parent's completion moves them to the queue on replay
+                lock.lock();
+                try {
+                    for (JobDag.Node child : ready) {
+                        queue(child.getJob(), System.currentTimeMillis());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        signalWork();
+    }
+
+    private void signalWork() {
+        lock.lock();
+        try {
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 }
 
@@ -155,5 +969,7 @@ public class JobScheduler {
 
         // Optional: Wait to ensure all jobs complete before shutdown (not mandatory in real systems)
         Thread.sleep(10000); // Let jobs run for a while
+        jobSchedulerManager.shutdown();
+        jobSchedulerManager.awaitTermination(5, TimeUnit.SECONDS);
     }
 }
@@ -1,4 +1,900 @@
 package multithreaded;
 
-public class LRUCache {
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Bounded thread-safe cache that evicts entries once the total weight exceeds the maximum. Each
+ * entry weighs 1 unless a weigher is given. Which entry goes is up to the {@link EvictionPolicy}
+ * chosen when the cache is built, least recently used by default.
+ * <p>
+ * Lookups go straight to a {@link ConcurrentHashMap}, the eviction order lives in a
+ * {@link CachePolicy} that only the thread holding the eviction lock touches. A read doesn't reorder the list itself, it
+ * appends the entry to one of several small ring buffers, picked by thread, and whoever takes the
+ * lock next replays the buffered reads in one batch. Readers never wait for that lock: when a
+ * buffer is full the read is simply not recorded, which only makes the recency order slightly less
+ * exact. Writes are queued the same way but never dropped, and are applied before the next
+ * eviction so the weight bound holds as soon as the writer's drain has run.
+ * <p>
+ * {@link #computeIfAbsent} loads a missing key once however many threads ask for it concurrently:
+ * the first caller runs the loader outside any map lock and the others wait for its result.
+ * <p>
+ * With an {@link OffHeapStore} configured, evicted entries are spilled to direct memory instead of
+ * dropped and a read that misses on heap takes them back. Spilling, promoting and removing a key
+ * all happen under that key's map lock, so a removed entry can never come back from the spill.
+ * <p>
+ * Entries can expire a fixed time after they were written or last read. Each entry's deadline is
+ * kept in a {@link TimerWheel} that the eviction lock holder advances during maintenance, so
+ * expiring costs amortized O(1) per entry instead of a sweep over all of them. Maintenance runs on
+ * reads and writes; a cache that sits idle keeps its expired entries until someone calls
+ * {@link #cleanUp()}, but never returns them. With refresh-after-write, a read of an entry older
+ * than the refresh time still returns the cached value and reloads it in the background, so keys
+ * that keep being read are replaced before they expire and never miss.
+ */
+public class LRUCache<K, V> {
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    // Past this many queued writes a writer waits for the eviction lock instead of trying it
+    private static final int MAX_PENDING_WRITES = 1024;
+    // About 146 years, deadlines stay comparable by subtraction
+    private static final long MAX_DURATION = Long.MAX_VALUE >> 1;
+
+    static final class Node<K, V> {
+        private final K key;
+        private volatile V value;
+        private volatile int weight;
+        // Cleared, before its removal is queued, once the node has left the map for good
+        private volatile boolean alive;
+        // Ticker times, only kept when the cache expires or refreshes entries
+        private volatile long writeTime;
+        private volatile long accessTime;
+        // Guarded by the eviction lock, owned by the CachePolicy
+        int policyWeight;
+        byte queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+        // Guarded by the eviction lock, owned by the TimerWheel
+        long expirationTime;
+        Node<K, V> timerPrev;
+        Node<K, V> timerNext;
+
+        private Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            alive = true;
+        }
+
+        K getKey() {
+            return key;
+        }
+
+        V getValue() {
+            return value;
+        }
+
+        boolean isLinked() {
+            return Objects.nonNull(prev);
+        }
+
+        static <K, V> Node<K, V> sentinel() {
+            return new Node<>(null, null, 0);
+        }
+    }
+
+    /**
+     * Lossy multi-producer ring of recent reads, drained by the eviction lock holder.
+     */
+    private static final class ReadBuffer<K, V> {
+        private final AtomicReferenceArray<Node<K, V>> slots;
+        private final AtomicLong writes;
+        // Only advanced by the drainer
+        private volatile long reads;
+
+        private ReadBuffer() {
+            slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+            writes = new AtomicLong();
+        }
+
+        /**
+         * Returns false once the buffer is full and should be drained. A read offered to a full
+         * buffer is dropped.
+         */
+        private boolean offer(Node<K, V> node) {
+            long write = writes.get();
+            long pending = write - reads;
+            if (pending >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            // Losing the race to another reader also drops the read, no retry
+            if (writes.compareAndSet(write, write + 1)) {
+                slots.lazySet((int) write & READ_BUFFER_MASK, node);
+            }
+            return pending + 1 < READ_BUFFER_SIZE;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loads;
+    private final ReadBuffer<K, V>[] readBuffers;
+    private final ConcurrentLinkedQueue<Runnable> writeBuffer;
+    private final AtomicInteger pendingWrites;
+    private final ReentrantLock evictionLock;
+    private volatile boolean drainRequired;
+    private final long maximumWeight;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    // Optional second tier that evicted entries spill to
+    private final OffHeapStore<K> offHeap;
+    private final ValueCodec<V> codec;
+    // Negative when not configured
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final long refreshAfterWriteNanos;
+    private final Function<? super K, ? extends V> refresher;
+    private final Executor executor;
+    private final LongSupplier ticker;
+    // Keys with a reload in flight, mapped to the node it will replace the value of
+    private final ConcurrentHashMap<K, Node<K, V>> refreshes;
+
+    // Guarded by evictionLock
+    private final CachePolicy<K, V> policy;
+    private final TimerWheel<K, V> timerWheel;
+    private long weightedSize;
+    private long evictions;
+    private long expirations;
+
+    @SuppressWarnings("unchecked")
+    private LRUCache(Builder<K, V> builder) {
+        data = new ConcurrentHashMap<>();
+        loads = new ConcurrentHashMap<>();
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        readBuffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+        writeBuffer = new ConcurrentLinkedQueue<>();
+        pendingWrites = new AtomicInteger();
+        evictionLock = new ReentrantLock();
+        maximumWeight = builder.maximumWeight;
+        weigher = builder.weigher;
+        hits = new LongAdder();
+        misses = new LongAdder();
+        policy = builder.evictionPolicy.create(maximumWeight);
+        offHeap = builder.offHeapBytes > 0 ? new OffHeapStore<>(builder.offHeapBytes) : null;
+        codec = builder.codec;
+        expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+        refresher = builder.refresher;
+        executor = builder.executor;
+        ticker = builder.ticker;
+        refreshes = new ConcurrentHashMap<>();
+        boolean expires = expireAfterWriteNanos >= 0 || expireAfterAccessNanos >= 0;
+        timerWheel = expires ? new TimerWheel<>(ticker.getAsLong()) : null;
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
+    }
+
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        if (Objects.isNull(node) && Objects.nonNull(offHeap) && offHeap.contains(key)) {
+            node = promote(key);
+        }
+        if (Objects.isNull(node)) {
+            misses.increment();
+            return null;
+        }
+        if (recordsTime()) {
+            long now = ticker.getAsLong();
+            if (hasExpired(node, now)) {
+                misses.increment();
+                // Let the timer wheel catch up and drop it
+                tryDrain();
+                return null;
+            }
+            if (expireAfterAccessNanos >= 0) {
+                node.accessTime = now;
+            }
+            if (Objects.nonNull(refresher) && now - node.writeTime >= refreshAfterWriteNanos) {
+                refresh(node);
+            }
+        }
+        hits.increment();
+        afterRead(node);
+        return node.value;
+    }
+
+    /**
+     * Returns the previous value, or null if the key was not cached.
+     */
+    public V put(K key, V value) {
+        return put(key, value, false);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Returns the cached value, loading it with the loader if absent. Concurrent calls for the same
+     * key share one load; a null result is not cached and an exception thrown by the loader is
+     * rethrown to every caller waiting for it.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader) {
+        V cached = get(key);
+        if (Objects.nonNull(cached)) {
+            return cached;
+        }
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running = loads.putIfAbsent(key, load);
+        if (Objects.nonNull(running)) {
+            return join(running);
+        }
+        try {
+            // Another load may have finished between the miss and registering this one
+            Node<K, V> node = data.get(key);
+            if (Objects.nonNull(node) && Objects.nonNull(timerWheel) && hasExpired(node, ticker.getAsLong())) {
+                node = null;
+            }
+            V value = Objects.nonNull(node) ? node.value : loader.apply(key);
+            if (Objects.isNull(node) && Objects.nonNull(value)) {
+                V existing = put(key, value, true);
+                if (Objects.nonNull(existing)) {
+                    value = existing;
+                }
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    public V remove(K key) {
+        Node<K, V> node;
+        if (Objects.isNull(offHeap)) {
+            node = data.remove(key);
+        } else {
+            // Under the key's map lock, so a concurrent promotion cannot bring the spilled copy back
+            Object[] removed = new Object[1];
+            data.compute(key, (k, existing) -> {
+                removed[0] = existing;
+                offHeap.remove(k);
+                return null;
+            });
+            @SuppressWarnings("unchecked")
+            Node<K, V> existing = (Node<K, V>) removed[0];
+            node = existing;
+        }
+        if (Objects.isNull(node)) {
+            return null;
+        }
+        node.alive = false;
+        afterWrite(() -> onRemove(node));
+        return Objects.nonNull(timerWheel) && hasExpired(node, ticker.getAsLong()) ? null : node.value;
+    }
+
+    /**
+     * Number of cached entries, may briefly exceed the bound until queued writes are applied.
+     */
+    public long estimatedSize() {
+        return data.mappingCount();
+    }
+
+    /**
+     * Applies every queued read and write and evicts down to the maximum weight.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            maintenance();
+            return weightedSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long expirationCount() {
+        evictionLock.lock();
+        try {
+            return expirations;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long evictionCount() {
+        evictionLock.lock();
+        try {
+            return evictions;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    OffHeapStore<K> offHeap() {
+        return offHeap;
+    }
+
+    Collection<Node<K, V>> nodes() {
+        return data.values();
+    }
+
+    int refreshing() {
+        return refreshes.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Keys roughly in the order the policy would evict them, as far as the recorded reads tell.
+     */
+    List<K> keysInEvictionOrder() {
+        evictionLock.lock();
+        try {
+            maintenance();
+            return policy.keysInEvictionOrder();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int weight = weigh(key, value);
+        long now = recordsTime() ? ticker.getAsLong() : 0L;
+        Node<K, V> node = new Node<>(key, value, weight);
+        node.writeTime = now;
+        node.accessTime = now;
+        while (true) {
+            Node<K, V> prior = data.putIfAbsent(key, node);
+            if (Objects.isNull(prior)) {
+                afterWrite(() -> onAdd(node));
+                return null;
+            }
+            if (onlyIfAbsent && prior.alive && !hasExpired(prior, now)) {
+                afterRead(prior);
+                return prior.value;
+            }
+            V previous;
+            synchronized (prior) {
+                if (!prior.alive) {
+                    // Removed after putIfAbsent saw it, it is gone from the map by now
+                    continue;
+                }
+                previous = hasExpired(prior, now) ? null : prior.value;
+                prior.value = value;
+                prior.weight = weight;
+                prior.writeTime = now;
+                prior.accessTime = now;
+            }
+            afterWrite(() -> onUpdate(prior));
+            return previous;
+        }
+    }
+
+    /**
+     * Moves a spilled entry back on heap, unless another thread put the key there first.
+     */
+    private Node<K, V> promote(K key) {
+        boolean[] promoted = new boolean[1];
+        Node<K, V> node = data.computeIfAbsent(key, k -> {
+            byte[] bytes = offHeap.take(k);
+            if (Objects.isNull(bytes)) {
+                return null;
+            }
+            V value = codec.decode(bytes);
+            promoted[0] = true;
+            return new Node<>(k, value, weigh(k, value));
+        });
+        if (promoted[0]) {
+            afterWrite(() -> onAdd(node));
+        }
+        return node;
+    }
+
+    /**
+     * Reloads the entry on the executor unless a reload of its key is already running. The old
+     * value is served meanwhile and stays if the loader fails or returns null.
+     */
+    private void refresh(Node<K, V> node) {
+        if (Objects.nonNull(refreshes.putIfAbsent(node.key, node))) {
+            return;
+        }
+        long writeTime = node.writeTime;
+        try {
+            executor.execute(() -> {
+                try {
+                    V value = refresher.apply(node.key);
+                    if (Objects.nonNull(value)) {
+                        refreshed(node, writeTime, value);
+                    }
+                } catch (RuntimeException e) {
+                    // The next read past the refresh time tries again
+                } finally {
+                    refreshes.remove(node.key, node);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshes.remove(node.key, node);
+        }
+    }
+
+    private void refreshed(Node<K, V> node, long writeTime, V value) {
+        int weight = weigh(node.key, value);
+        long now = ticker.getAsLong();
+        synchronized (node) {
+            if (!node.alive || node.writeTime != writeTime) {
+                // Removed, expired or written while reloading, the newer state wins
+                return;
+            }
+            node.value = value;
+            node.weight = weight;
+            node.writeTime = now;
+            node.accessTime = now;
+        }
+        afterWrite(() -> onUpdate(node));
+    }
+
+    private boolean recordsTime() {
+        return Objects.nonNull(timerWheel) || Objects.nonNull(refresher);
+    }
+
+    private boolean hasExpired(Node<K, V> node, long now) {
+        return Objects.nonNull(timerWheel) && expirationTime(node) - now <= 0;
+    }
+
+    private long expirationTime(Node<K, V> node) {
+        if (expireAfterWriteNanos < 0) {
+            return node.accessTime + expireAfterAccessNanos;
+        }
+        long afterWrite = node.writeTime + expireAfterWriteNanos;
+        if (expireAfterAccessNanos < 0) {
+            return afterWrite;
+        }
+        long afterAccess = node.accessTime + expireAfterAccessNanos;
+        return afterAccess - afterWrite < 0 ? afterAccess : afterWrite;
+    }
+
+    private int weigh(K key, V value) {
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight for key " + key + ": " + weight);
+        }
+        return weight;
+    }
+
+    private void afterRead(Node<K, V> node) {
+        int probe = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        ReadBuffer<K, V> buffer = readBuffers[(probe ^ (probe >>> 16)) & (readBuffers.length - 1)];
+        if (!buffer.offer(node)) {
+            tryDrain();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        if (pendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+            // Writers outpace the drain, make them help instead of growing the queue
+            cleanUp();
+        } else {
+            tryDrain();
+        }
+    }
+
+    /**
+     * Drains without ever waiting for the lock. A thread that fails to get it leaves the flag set,
+     * and the holder checks the flag again after unlocking, so no queued write is left behind.
+     */
+    private void tryDrain() {
+        drainRequired = true;
+        while (drainRequired && evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    // Guarded by evictionLock
+    private void maintenance() {
+        drainRequired = false;
+        // Reads before writes, so an entry written after others were read ends up the most recent
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            drain(buffer);
+        }
+        Runnable task;
+        while (Objects.nonNull(task = writeBuffer.poll())) {
+            pendingWrites.decrementAndGet();
+            task.run();
+        }
+        if (Objects.nonNull(timerWheel)) {
+            timerWheel.advance(ticker.getAsLong(), this::expire);
+        }
+        evict();
+    }
+
+    // Guarded by evictionLock
+    private void drain(ReadBuffer<K, V> buffer) {
+        long read = buffer.reads;
+        long write = buffer.writes.get();
+        for (; read < write; read++) {
+            int index = (int) read & READ_BUFFER_MASK;
+            Node<K, V> node = buffer.slots.get(index);
+            if (Objects.isNull(node)) {
+                // Claimed but not yet stored, picked up by the next drain
+                break;
+            }
+            buffer.slots.lazySet(index, null);
+            if (node.isLinked()) {
+                policy.access(node);
+                if (expireAfterAccessNanos >= 0) {
+                    schedule(node);
+                }
+            }
+        }
+        buffer.reads = read;
+    }
+
+    // Guarded by evictionLock
+    private void evict() {
+        while (weightedSize > maximumWeight) {
+            Node<K, V> victim = policy.evict();
+            if (Objects.isNull(victim)) {
+                return;
+            }
+            if (Objects.nonNull(timerWheel)) {
+                timerWheel.deschedule(victim);
+            }
+            if (Objects.isNull(offHeap)) {
+                if (data.remove(victim.key, victim)) {
+                    victim.alive = false;
+                }
+            } else {
+                data.computeIfPresent(victim.key, (key, node) -> {
+                    if (node != victim) {
+                        return node;
+                    }
+                    // As in expire, an in-place put either lands before the copy or sees the node dead
+                    byte[] bytes;
+                    synchronized (victim) {
+                        victim.alive = false;
+                        bytes = codec.encode(victim.value);
+                    }
+                    offHeap.put(key, bytes);
+                    return null;
+                });
+            }
+            // If the node had been removed already its queued removal finds it unlinked
+            weightedSize -= victim.policyWeight;
+            evictions++;
+        }
+    }
+
+    // Guarded by evictionLock
+    private void onAdd(Node<K, V> node) {
+        if (!node.alive || node.isLinked()) {
+            return;
+        }
+        node.policyWeight = node.weight;
+        weightedSize += node.policyWeight;
+        policy.add(node);
+        schedule(node);
+    }
+
+    // Guarded by evictionLock
+    private void onUpdate(Node<K, V> node) {
+        if (!node.isLinked()) {
+            return;
+        }
+        int oldWeight = node.policyWeight;
+        node.policyWeight = node.weight;
+        weightedSize += node.policyWeight - oldWeight;
+        policy.update(node, oldWeight);
+        schedule(node);
+    }
+
+    // Guarded by evictionLock
+    private void onRemove(Node<K, V> node) {
+        if (node.isLinked()) {
+            policy.remove(node);
+            weightedSize -= node.policyWeight;
+        }
+        if (Objects.nonNull(timerWheel)) {
+            timerWheel.deschedule(node);
+        }
+    }
+
+    // Guarded by evictionLock
+    private void schedule(Node<K, V> node) {
+        if (Objects.nonNull(timerWheel)) {
+            node.expirationTime = expirationTime(node);
+            timerWheel.schedule(node);
+        }
+    }
+
+    /**
+     * Called by the timer wheel for a node whose deadline has passed, as far as the wheel knows.
+     * Writes and dropped reads may have moved the deadline since, the node's lock makes the check
+     * and the removal atomic with respect to an in-place put.
+     */
+    // Guarded by evictionLock
+    private void expire(Node<K, V> node) {
+        if (!node.alive) {
+            // Removed by the user, its queued removal unlinks it from the policy
+            return;
+        }
+        synchronized (node) {
+            long time = expirationTime(node);
+            if (time - timerWheel.time() > 0) {
+                node.expirationTime = time;
+                timerWheel.schedule(node);
+                return;
+            }
+            node.alive = false;
+        }
+        data.remove(node.key, node);
+        if (node.isLinked()) {
+            policy.remove(node);
+            weightedSize -= node.policyWeight;
+        }
+        expirations++;
+    }
+
+    private static <V> V join(CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static final class Builder<K, V> {
+        private long maximumWeight = -1;
+        private ToIntBiFunction<? super K, ? super V> weigher = (key, value) -> 1;
+        private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+        private long offHeapBytes;
+        private ValueCodec<V> codec;
+        private long expireAfterWriteNanos = -1;
+        private long expireAfterAccessNanos = -1;
+        private long refreshAfterWriteNanos = -1;
+        private Function<? super K, ? extends V> refresher;
+        private Executor executor = ForkJoinPool.commonPool();
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder() {
+        }
+
+        public Builder<K, V> maximumSize(long maximumSize) {
+            return maximumWeight(maximumSize, (key, value) -> 1);
+        }
+
+        public Builder<K, V> maximumWeight(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+            if (maximumWeight < 0) {
+                throw new IllegalArgumentException("Invalid maximum weight: " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            this.weigher = Objects.requireNonNull(weigher);
+            return this;
+        }
+
+        public Builder<K, V> evictionPolicy(EvictionPolicy evictionPolicy) {
+            this.evictionPolicy = Objects.requireNonNull(evictionPolicy);
+            return this;
+        }
+
+        /**
+         * Entries evicted from the heap are encoded and kept in up to capacityBytes of direct
+         * memory, and move back on heap when read again.
+         */
+        public Builder<K, V> offHeap(long capacityBytes, ValueCodec<V> codec) {
+            if (capacityBytes < SlabAllocator.PAGE_SIZE) {
+                throw new IllegalArgumentException("Off-heap capacity below one page: " + capacityBytes);
+            }
+            this.offHeapBytes = capacityBytes;
+            this.codec = Objects.requireNonNull(codec);
+            return this;
+        }
+
+        /**
+         * Each entry expires the given time after it was last written.
+         */
+        public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+            expireAfterWriteNanos = toNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * Each entry expires the given time after it was last read or written.
+         */
+        public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+            expireAfterAccessNanos = toNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * A read of an entry written at least the given time ago reloads it with the loader on the
+         * {@link #executor}, while the read itself returns the current value.
+         */
+        public Builder<K, V> refreshAfterWrite(long duration, TimeUnit unit, Function<? super K, ? extends V> loader) {
+            refreshAfterWriteNanos = toNanos(duration, unit);
+            refresher = Objects.requireNonNull(loader);
+            return this;
+        }
+
+        /**
+         * Runs refreshes, the common pool by default.
+         */
+        public Builder<K, V> executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /**
+         * Source of nanosecond times for expiry and refresh, System.nanoTime by default.
+         */
+        Builder<K, V> ticker(LongSupplier ticker) {
+            this.ticker = Objects.requireNonNull(ticker);
+            return this;
+        }
+
+        public LRUCache<K, V> build() {
+            if (maximumWeight < 0) {
+                throw new IllegalStateException("Maximum size or weight not set");
+            }
+            boolean timed = expireAfterWriteNanos >= 0 || expireAfterAccessNanos >= 0 || Objects.nonNull(refresher);
+            if (timed && offHeapBytes > 0) {
+                throw new IllegalStateException("Expiry and refresh are not supported with the off-heap tier");
+            }
+            if (Objects.nonNull(refresher) && expireAfterWriteNanos >= 0 && refreshAfterWriteNanos >= expireAfterWriteNanos) {
+                throw new IllegalStateException("Refresh after write must be shorter than expire after write");
+            }
+            return new LRUCache<>(this);
+        }
+
+        private static long toNanos(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Invalid duration: " + duration + " " + unit);
+            }
+            return Math.min(unit.toNanos(duration), MAX_DURATION);
+        }
+    }
+
+    /**
+     * Eviction order, weight bound under concurrent writers and single-flight loading. Throughput
+     * against a synchronized LinkedHashMap is measured by the JMH {@code CacheBenchmark}.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        LRUCache<Integer, String> lru = LRUCache.<Integer, String>builder().maximumSize(3).build();
+        lru.put(1, "a");
+        lru.put(2, "b");
+        lru.put(3, "c");
+        lru.get(1);
+        lru.put(4, "d");
+        lru.cleanUp();
+        boolean orderOk = Objects.isNull(lru.get(2)) && lru.keysInEvictionOrder().equals(Arrays.asList(3, 1, 4));
+        System.out.println("Eviction order | after put 1,2,3 get 1 put 4: " + lru.keysInEvictionOrder() + " | evicted 2: " + orderOk);
+
+        int threads = 8;
+        boolean weightOk = true;
+        for (EvictionPolicy evictionPolicy : EvictionPolicy.values()) {
+            LRUCache<Integer, byte[]> weighted = LRUCache.<Integer, byte[]>builder()
+                    .maximumWeight(1 << 20, (key, value) -> value.length)
+                    .evictionPolicy(evictionPolicy)
+                    .build();
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 200_000; i++) {
+                        int key = random.nextInt(10_000);
+                        if (random.nextInt(4) == 0) {
+                            weighted.put(key, new byte[64 + random.nextInt(1024)]);
+                        } else if (Objects.isNull(weighted.get(key))) {
+                            weighted.remove(random.nextInt(10_000));
+                        }
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            long weightedSize = weighted.weightedSize();
+            long bytes = 0;
+            for (Node<Integer, byte[]> node : weighted.data.values()) {
+                bytes += node.value.length;
+            }
+            boolean consistent = weightedSize <= 1 << 20 && weightedSize == bytes
+                    && weighted.keysInEvictionOrder().size() == weighted.data.size();
+            weightOk &= consistent;
+            System.out.println("Weight bound | " + evictionPolicy + " | threads: " + threads + " | weighted size: " + weightedSize
+                    + " (max " + (1 << 20) + ") | bytes cached: " + bytes + " | evictions: " + weighted.evictionCount() + " | consistent: " + consistent);
+        }
+
+        LRUCache<String, Integer> loading = LRUCache.<String, Integer>builder().maximumSize(100).build();
+        AtomicInteger loaderCalls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch loaded = new CountDownLatch(threads);
+        AtomicInteger wrongValues = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    Integer value = loading.computeIfAbsent("config", key -> {
+                        loaderCalls.incrementAndGet();
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return 42;
+                    });
+                    if (value != 42) {
+                        wrongValues.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                loaded.countDown();
+            }).start();
+        }
+        start.countDown();
+        loaded.await();
+        boolean singleFlightOk = loaderCalls.get() == 1 && wrongValues.get() == 0;
+        System.out.println("Single-flight | threads: " + threads + " | loader calls: " + loaderCalls.get() + " | wrong values: " + wrongValues.get());
+
+        boolean ok = orderOk && weightOk && singleFlightOk;
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
 }
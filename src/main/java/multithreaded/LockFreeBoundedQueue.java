@@ -0,0 +1,224 @@
+package multithreaded;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a blocked producer/consumer does while the ring is full/empty.
+ */
+enum WaitStrategy {
+
+    // Lowest latency, burns a full core per waiting thread
+    SPIN {
+        @Override
+        void idle(int attempt) {
+        }
+    },
+
+    // Spins briefly, then gives the core away to other runnable threads
+    YIELD {
+        @Override
+        void idle(int attempt) {
+            if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    },
+
+    // Spins briefly, then parks for a short, fixed interval
+    PARK {
+        @Override
+        void idle(int attempt) {
+            if (attempt > SPIN_TRIES) {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50_000L;
+
+    abstract void idle(int attempt);
+}
+
+/**
+ * Bounded MPMC queue over a preallocated power-of-two ring. Every slot carries a sequence number
+ * that tells producers and consumers whose turn it is, so head/tail only need a CAS each and no
+ * lock is ever taken.
+ */
+class RingBufferBlockingQueue<T> {
+
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    private final WaitStrategy waitStrategy;
+
+    public RingBufferBlockingQueue(int capacity) {
+        this(capacity, WaitStrategy.YIELD);
+    }
+
+    /**
+     * The ring is rounded up to the next power of two so slots can be found with a mask, but the
+     * queue never holds more than capacity elements: a producer sees it full at capacity.
+     */
+    public RingBufferBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        this.capacity = capacity;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+    }
+
+    public boolean offer(T item) {
+        Objects.requireNonNull(item);
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) pos & mask;
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                // The slot sequence bounds a full ring; a smaller capacity also needs the head. A
+                // stale head only overstates the size, so this never lets the queue exceed capacity
+                if (capacity <= mask && pos - head.get() >= capacity) {
+                    return false;
+                }
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[idx] = item;
+                    sequences.set(idx, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // slot still holds the element from the previous lap -> full
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long pos = head.get();
+        while (true) {
+            int idx = (int) pos & mask;
+            long diff = sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T item = (T) buffer[idx];
+                    buffer[idx] = null;
+                    sequences.set(idx, pos + mask + 1);
+                    return item;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                // producer hasn't published this slot yet -> empty
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public void produce(T item) throws InterruptedException {
+        int attempt = 0;
+        while (!offer(item)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(attempt++);
+        }
+    }
+
+    public T consume() throws InterruptedException {
+        int attempt = 0;
+        T item;
+        while ((item = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(attempt++);
+        }
+        return item;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+}
+
+public class LockFreeBoundedQueue {
+
+    public static void main(String[] args) {
+        // A capacity that isn't a power of two is still the bound, not the rounded up ring size
+        RingBufferBlockingQueue<Integer> bounded = new RingBufferBlockingQueue<>(10);
+        int accepted = 0;
+        while (accepted < 16 && bounded.offer(accepted)) {
+            accepted++;
+        }
+        if (accepted != 10 || bounded.size() != 10) {
+            System.out.println("FAIL | capacity 10 accepted " + accepted + " elements");
+            System.exit(1);
+        }
+        bounded.poll();
+        if (!bounded.offer(10) || bounded.offer(11)) {
+            System.out.println("FAIL | capacity 10 is not enforced after a poll");
+            System.exit(1);
+        }
+        System.out.println("Capacity 10 on a ring of 16 | accepted: " + accepted + " | PASS");
+
+        RingBufferBlockingQueue<Integer> ringBufferBlockingQueue = new RingBufferBlockingQueue<>(10, WaitStrategy.PARK);
+
+        ExecutorService consumers = Executors.newFixedThreadPool(3);
+        Runnable consumer = () -> {
+            while (true) {
+                Integer num = null;
+                try {
+                    num = ringBufferBlockingQueue.consume();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                System.out.println(num);
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            consumers.submit(consumer);
+        }
+
+        ExecutorService producers = Executors.newCachedThreadPool();
+        producers.submit(() -> {
+            for (int i = 0; i < 100; i++) {
+                try {
+                    ringBufferBlockingQueue.produce(i);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+    }
+}
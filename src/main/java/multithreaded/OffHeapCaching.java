@@ -0,0 +1,640 @@
+package multithreaded;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Turns cache values into the bytes kept off heap and back.
+ */
+interface ValueCodec<V> {
+
+    byte[] encode(V value);
+
+    V decode(byte[] bytes);
+
+    static ValueCodec<byte[]> bytes() {
+        return new ValueCodec<byte[]>() {
+            @Override
+            public byte[] encode(byte[] value) {
+                return value;
+            }
+
+            @Override
+            public byte[] decode(byte[] bytes) {
+                return bytes;
+            }
+        };
+    }
+}
+
+/**
+ * Memcached-style slab allocator over direct memory. The capacity is carved into 1 MB pages that
+ * are allocated on first use and handed to a size class when it needs room; a page is cut into
+ * equal chunks of its class size, growing by 1.25x from 64 bytes, so an allocation wastes at most
+ * a fifth of its chunk. A page whose chunks are all free again goes back to the shared pool and
+ * can serve another size class. Not thread-safe, {@link OffHeapStore} serializes access.
+ */
+class SlabAllocator {
+
+    static final int PAGE_SIZE = 1 << 20;
+    private static final int MIN_CHUNK = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+
+    private final int[] chunkSizes;
+    private final ByteBuffer[] pages;
+    private final int[] pageClass;
+    private final int[] usedChunks;
+    // Chunks never handed out yet are taken in order, freed ones are reused first
+    private final int[] bumpChunk;
+    private final int[][] freeChunks;
+    private final int[] freeCount;
+    private final IntStack[] partialPages;
+    private final IntStack emptyPages;
+    private int allocatedPages;
+
+    SlabAllocator(long capacityBytes) {
+        long pageCount = capacityBytes / PAGE_SIZE;
+        if (pageCount <= 0 || pageCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid off-heap capacity: " + capacityBytes);
+        }
+        List<Integer> sizes = new ArrayList<>();
+        for (double size = MIN_CHUNK; size < PAGE_SIZE; size *= GROWTH_FACTOR) {
+            int aligned = ((int) size + 7) & ~7;
+            if (sizes.isEmpty() || aligned > sizes.get(sizes.size() - 1)) {
+                sizes.add(aligned);
+            }
+        }
+        sizes.add(PAGE_SIZE);
+        chunkSizes = sizes.stream().mapToInt(Integer::intValue).toArray();
+        pages = new ByteBuffer[(int) pageCount];
+        pageClass = new int[pages.length];
+        Arrays.fill(pageClass, -1);
+        usedChunks = new int[pages.length];
+        bumpChunk = new int[pages.length];
+        freeChunks = new int[pages.length][];
+        freeCount = new int[pages.length];
+        partialPages = new IntStack[chunkSizes.length];
+        for (int i = 0; i < chunkSizes.length; i++) {
+            partialPages[i] = new IntStack();
+        }
+        emptyPages = new IntStack();
+    }
+
+    /**
+     * Smallest size class that fits the length, or -1 if it is larger than a page.
+     */
+    int sizeClassOf(int length) {
+        int index = Arrays.binarySearch(chunkSizes, length);
+        index = index >= 0 ? index : -index - 1;
+        return index < chunkSizes.length ? index : -1;
+    }
+
+    int sizeClassCount() {
+        return chunkSizes.length;
+    }
+
+    /**
+     * Address of a free chunk of the size class, or -1 if every page is in use.
+     */
+    long allocate(int sizeClass) {
+        IntStack partial = partialPages[sizeClass];
+        // Pages are pushed again when a chunk on them is freed, skip the ones that filled up or moved
+        while (!partial.isEmpty()) {
+            int page = partial.peek();
+            if (pageClass[page] == sizeClass && hasFreeChunk(page)) {
+                return take(page);
+            }
+            partial.pop();
+        }
+        int page;
+        if (!emptyPages.isEmpty()) {
+            page = emptyPages.pop();
+        } else if (allocatedPages < pages.length) {
+            page = allocatedPages++;
+            pages[page] = ByteBuffer.allocateDirect(PAGE_SIZE);
+        } else {
+            return -1;
+        }
+        pageClass[page] = sizeClass;
+        bumpChunk[page] = 0;
+        freeCount[page] = 0;
+        if (Objects.isNull(freeChunks[page]) || freeChunks[page].length < chunksPerPage(sizeClass)) {
+            freeChunks[page] = new int[chunksPerPage(sizeClass)];
+        }
+        partial.push(page);
+        return take(page);
+    }
+
+    void free(long address) {
+        int page = pageOf(address);
+        int sizeClass = pageClass[page];
+        boolean wasFull = !hasFreeChunk(page);
+        freeChunks[page][freeCount[page]++] = (int) (address % PAGE_SIZE) / chunkSizes[sizeClass];
+        if (--usedChunks[page] == 0) {
+            pageClass[page] = -1;
+            emptyPages.push(page);
+        } else if (wasFull) {
+            partialPages[sizeClass].push(page);
+        }
+    }
+
+    void write(long address, byte[] bytes) {
+        ByteBuffer page = pages[pageOf(address)];
+        page.position((int) (address % PAGE_SIZE));
+        page.put(bytes);
+    }
+
+    byte[] read(long address, int length) {
+        ByteBuffer page = pages[pageOf(address)];
+        page.position((int) (address % PAGE_SIZE));
+        byte[] bytes = new byte[length];
+        page.get(bytes);
+        return bytes;
+    }
+
+    int pageOf(long address) {
+        return (int) (address / PAGE_SIZE);
+    }
+
+    /**
+     * The assigned page with the fewest chunks in use that doesn't belong to the size class, or -1.
+     */
+    int leastUsedPageExcept(int sizeClass) {
+        int best = -1;
+        for (int page = 0; page < allocatedPages; page++) {
+            if (pageClass[page] >= 0 && pageClass[page] != sizeClass && (best < 0 || usedChunks[page] < usedChunks[best])) {
+                best = page;
+            }
+        }
+        return best;
+    }
+
+    int pageClass(int page) {
+        return pageClass[page];
+    }
+
+    long reservedBytes() {
+        return (long) allocatedPages * PAGE_SIZE;
+    }
+
+    private boolean hasFreeChunk(int page) {
+        return freeCount[page] > 0 || bumpChunk[page] < chunksPerPage(pageClass[page]);
+    }
+
+    private long take(int page) {
+        int chunk = freeCount[page] > 0 ? freeChunks[page][--freeCount[page]] : bumpChunk[page]++;
+        usedChunks[page]++;
+        return (long) page * PAGE_SIZE + (long) chunk * chunkSizes[pageClass[page]];
+    }
+
+    private int chunksPerPage(int sizeClass) {
+        return PAGE_SIZE / chunkSizes[sizeClass];
+    }
+
+    private static final class IntStack {
+        private int[] values = new int[16];
+        private int size;
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int peek() {
+            return values[size - 1];
+        }
+
+        private int pop() {
+            return values[--size];
+        }
+    }
+}
+
+/**
+ * Second cache tier holding values as bytes in direct memory, outside the reach of the garbage
+ * collector; only the key index stays on heap. Each size class of the {@link SlabAllocator} keeps
+ * its own LRU list, a full class evicts its least recently used entry to make room. A class that
+ * owns no entries yet takes over the page with the fewest live chunks, evicting what's on it.
+ * <p>
+ * A single lock guards the tier. It is only reached on misses of the on-heap tier and on its
+ * evictions, so it sees a small fraction of the cache's traffic.
+ */
+class OffHeapStore<K> {
+
+    private static final class Slot<K> {
+        private final K key;
+        private final long address;
+        private final int length;
+        private final int sizeClass;
+        private Slot<K> prev;
+        private Slot<K> next;
+
+        private Slot(K key, long address, int length, int sizeClass) {
+            this.key = key;
+            this.address = address;
+            this.length = length;
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    private final SlabAllocator allocator;
+    private final ConcurrentHashMap<K, Slot<K>> index;
+    private final ReentrantLock lock;
+    // Guarded by lock, per size class sentinel, head.next is the least recently used
+    private final Slot<K>[] lru;
+    private long storedBytes;
+    private long evictions;
+    private long rejected;
+
+    @SuppressWarnings("unchecked")
+    OffHeapStore(long capacityBytes) {
+        allocator = new SlabAllocator(capacityBytes);
+        index = new ConcurrentHashMap<>();
+        lock = new ReentrantLock();
+        lru = (Slot<K>[]) new Slot<?>[allocator.sizeClassCount()];
+        for (int i = 0; i < lru.length; i++) {
+            lru[i] = new Slot<>(null, -1, 0, i);
+            lru[i].prev = lru[i];
+            lru[i].next = lru[i];
+        }
+    }
+
+    /**
+     * Lock-free check used before taking the lock, may be stale by the time the caller acts on it.
+     */
+    boolean contains(K key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Stores a copy of the bytes, replacing any previous value. Returns false if the value is
+     * larger than a page and was not stored.
+     */
+    boolean put(K key, byte[] bytes) {
+        lock.lock();
+        try {
+            release(index.remove(key));
+            int sizeClass = allocator.sizeClassOf(bytes.length);
+            if (sizeClass < 0) {
+                rejected++;
+                return false;
+            }
+            long address;
+            while ((address = allocator.allocate(sizeClass)) < 0) {
+                Slot<K> oldest = lru[sizeClass].next;
+                if (oldest != lru[sizeClass]) {
+                    evict(oldest);
+                } else if (!reclaimPage(sizeClass)) {
+                    rejected++;
+                    return false;
+                }
+            }
+            allocator.write(address, bytes);
+            Slot<K> slot = new Slot<>(key, address, bytes.length, sizeClass);
+            linkLast(slot);
+            index.put(key, slot);
+            storedBytes += bytes.length;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the key and returns its bytes, or null if it is not stored.
+     */
+    byte[] take(K key) {
+        lock.lock();
+        try {
+            Slot<K> slot = index.remove(key);
+            if (Objects.isNull(slot)) {
+                return null;
+            }
+            byte[] bytes = allocator.read(slot.address, slot.length);
+            release(slot);
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(K key) {
+        if (!index.containsKey(key)) {
+            return;
+        }
+        lock.lock();
+        try {
+            release(index.remove(key));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long size() {
+        return index.mappingCount();
+    }
+
+    long storedBytes() {
+        lock.lock();
+        try {
+            return storedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long reservedBytes() {
+        lock.lock();
+        try {
+            return allocator.reservedBytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long evictionCount() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Guarded by lock
+    private boolean reclaimPage(int sizeClass) {
+        int page = allocator.leastUsedPageExcept(sizeClass);
+        if (page < 0) {
+            return false;
+        }
+        Slot<K> head = lru[allocator.pageClass(page)];
+        for (Slot<K> slot = head.next; slot != head; ) {
+            Slot<K> next = slot.next;
+            if (allocator.pageOf(slot.address) == page) {
+                evict(slot);
+            }
+            slot = next;
+        }
+        return true;
+    }
+
+    // Guarded by lock
+    private void evict(Slot<K> slot) {
+        index.remove(slot.key, slot);
+        release(slot);
+        evictions++;
+    }
+
+    // Guarded by lock
+    private void release(Slot<K> slot) {
+        if (Objects.isNull(slot)) {
+            return;
+        }
+        slot.prev.next = slot.next;
+        slot.next.prev = slot.prev;
+        allocator.free(slot.address);
+        storedBytes -= slot.length;
+    }
+
+    private void linkLast(Slot<K> slot) {
+        Slot<K> head = lru[slot.sizeClass];
+        slot.prev = head.prev;
+        slot.next = head;
+        head.prev.next = slot;
+        head.prev = slot;
+    }
+}
+
+/**
+ * GC cost of holding a large cache on heap versus spilling it to the off-heap tier. Both runs
+ * cache the same amount of data and serve the same random reads and writes while a hiccup meter
+ * thread records how much longer than 1 ms each of its sleeps took, which includes every GC pause.
+ * <pre>
+ *   bytes=2g value=16k seconds=20 mode=heap|offheap
+ * </pre>
+ * Each mode should get its own JVM with enough heap for the on-heap run, e.g.
+ * {@code java -Xms1g -Xmx3g -XX:MaxDirectMemorySize=3g multithreaded.OffHeapCaching mode=heap}. Without a
+ * mode both run one after the other.
+ */
+public class OffHeapCaching {
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        long bytes = parseBytes(options.getOrDefault("bytes", "2g"));
+        int valueSize = (int) parseBytes(options.getOrDefault("value", "16k"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "20"));
+        String mode = options.get("mode");
+        if (!verify()) {
+            System.out.println("FAIL");
+            System.exit(1);
+        }
+        if (Objects.isNull(mode) || mode.equals("heap")) {
+            run("heap", bytes, valueSize, seconds, LRUCache.<Integer, byte[]>builder()
+                    .maximumWeight(bytes, (key, value) -> value.length)
+                    .build());
+        }
+        if (Objects.isNull(mode)) {
+            System.gc();
+        }
+        if (Objects.isNull(mode) || mode.equals("offheap")) {
+            // 1% of the data stays on heap, the rest is spilled to direct memory
+            run("offheap", bytes, valueSize, seconds, LRUCache.<Integer, byte[]>builder()
+                    .maximumWeight(bytes / 100, (key, value) -> value.length)
+                    .offHeap(bytes + bytes / 8, ValueCodec.bytes())
+                    .build());
+        }
+    }
+
+    /**
+     * Values of random sizes spilled and promoted by several threads must always read back intact
+     * and never older than the last completed put of their key, and a removed key must stay
+     * removed. Every put writes a new version of its key, so a spill racing an in-place put that
+     * later brings the old bytes back is caught as a stale read.
+     */
+    private static boolean verify() throws InterruptedException {
+        LRUCache<Integer, byte[]> cache = LRUCache.<Integer, byte[]>builder()
+                .maximumWeight(1 << 20, (key, value) -> value.length)
+                .offHeap(16 << 20, ValueCodec.bytes())
+                .build();
+        int keys = 5_000;
+        int threads = 4;
+        // Version of the last put of each key that has returned, puts of one key are serialized
+        AtomicLongArray written = new AtomicLongArray(keys);
+        Object[] writeLocks = new Object[keys];
+        Arrays.setAll(writeLocks, key -> new Object());
+        long[] corrupt = new long[threads];
+        long[] stale = new long[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 200_000; i++) {
+                    int key = random.nextInt(keys);
+                    int action = random.nextInt(10);
+                    if (action == 0) {
+                        cache.remove(key);
+                    } else if (action < 4) {
+                        synchronized (writeLocks[key]) {
+                            long version = written.get(key) + 1;
+                            cache.put(key, valueOf(key, version));
+                            written.set(key, version);
+                        }
+                    } else {
+                        long floor = written.get(key);
+                        byte[] value = cache.get(key);
+                        if (Objects.isNull(value)) {
+                            continue;
+                        }
+                        long version = ByteBuffer.wrap(value).getLong();
+                        if (!Arrays.equals(value, valueOf(key, version))) {
+                            corrupt[thread]++;
+                        } else if (version < floor) {
+                            stale[thread]++;
+                        }
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long corrupted = Arrays.stream(corrupt).sum();
+        long staleReads = Arrays.stream(stale).sum();
+        long resurrected = 0;
+        for (int key = 0; key < keys; key++) {
+            cache.remove(key);
+        }
+        for (int key = 0; key < keys; key++) {
+            if (Objects.nonNull(cache.get(key))) {
+                resurrected++;
+            }
+        }
+        OffHeapStore<Integer> offHeap = cache.offHeap();
+        boolean ok = corrupted == 0 && staleReads == 0 && resurrected == 0 && offHeap.size() == 0 && offHeap.storedBytes() == 0;
+        System.out.println("Verify | threads: " + threads + " | corrupted reads: " + corrupted + " | stale reads: " + staleReads
+                + " | resurrected after remove: " + resurrected + " | off-heap evictions: " + offHeap.evictionCount()
+                + " | off-heap left: " + offHeap.size() + " | " + (ok ? "PASS" : "FAIL"));
+        return ok;
+    }
+
+    // The version in the first 8 bytes, length and content depend on key and version, 100 B to 20 KB spread over many size classes
+    private static byte[] valueOf(int key, long version) {
+        byte[] value = new byte[100 + (int) Math.floorMod(key * 7919L + version * 131, 20_000L)];
+        for (int i = Long.BYTES; i < value.length; i++) {
+            value[i] = (byte) (key * 31 + version * 17 + i);
+        }
+        ByteBuffer.wrap(value).putLong(version);
+        return value;
+    }
+
+    private static void run(String mode, long bytes, int valueSize, int seconds, LRUCache<Integer, byte[]> cache) throws InterruptedException {
+        int keys = (int) (bytes / valueSize);
+        for (int key = 0; key < keys; key++) {
+            cache.put(key, new byte[valueSize]);
+        }
+        cache.cleanUp();
+        long gcCountBefore = 0;
+        long gcMillisBefore = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCountBefore += gc.getCollectionCount();
+            gcMillisBefore += gc.getCollectionTime();
+        }
+
+        LatencyHistogram hiccups = new LatencyHistogram();
+        LatencyHistogram latency = new LatencyHistogram();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+        CountDownLatch done = new CountDownLatch(workers + 1);
+        Thread meter = new Thread(() -> {
+            while (System.nanoTime() < end) {
+                long start = System.nanoTime();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                hiccups.record(System.nanoTime() - start - TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            done.countDown();
+        });
+        meter.start();
+        long[] ops = new long[workers];
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    int key = random.nextInt(keys);
+                    long start = System.nanoTime();
+                    if (random.nextInt(10) == 0 || Objects.isNull(cache.get(key))) {
+                        cache.put(key, new byte[valueSize]);
+                    }
+                    latency.record(System.nanoTime() - start);
+                    ops[worker]++;
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        long gcCount = -gcCountBefore;
+        long gcMillis = -gcMillisBefore;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcMillis += gc.getCollectionTime();
+        }
+        long totalOps = Arrays.stream(ops).sum();
+        long heapUsed = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        OffHeapStore<Integer> offHeap = cache.offHeap();
+        System.out.println(String.format("%-7s | cached %,d MB in %,d x %,d B values | heap used %,d MB | off-heap %,d MB in %,d entries",
+                mode, bytes >> 20, keys, valueSize, heapUsed >> 20,
+                Objects.isNull(offHeap) ? 0 : offHeap.storedBytes() >> 20, Objects.isNull(offHeap) ? 0 : offHeap.size()));
+        System.out.println(String.format("%-7s | %,d ops/s | GCs: %d taking %,d ms | pause (hiccup) p99=%.1fms p99.9=%.1fms max=%.1fms | op p99=%,dns",
+                mode, totalOps / seconds, gcCount, gcMillis, hiccups.percentile(99) / 1e6, hiccups.percentile(99.9) / 1e6,
+                hiccups.max() / 1e6, latency.percentile(99)));
+    }
+
+    private static long parseBytes(String value) {
+        String lower = value.trim().toLowerCase();
+        long unit = 1;
+        switch (lower.charAt(lower.length() - 1)) {
+            case 'k':
+                unit = 1L << 10;
+                break;
+            case 'm':
+                unit = 1L << 20;
+                break;
+            case 'g':
+                unit = 1L << 30;
+                break;
+            default:
+                return Long.parseLong(lower);
+        }
+        return Long.parseLong(lower.substring(0, lower.length() - 1)) * unit;
+    }
+}
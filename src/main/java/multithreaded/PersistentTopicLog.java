@@ -0,0 +1,307 @@
+package multithreaded;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One record of a {@link PersistentTopic}. The payload is a read-only view straight into the
+ * mapped segment, nothing is copied on read.
+ */
+@Getter
+class TopicRecord {
+    private final long offset;
+    private final long nextOffset;
+    private final ByteBuffer payload;
+
+    TopicRecord(long offset, long nextOffset, ByteBuffer payload) {
+        this.offset = offset;
+        this.nextOffset = nextOffset;
+        this.payload = payload;
+    }
+
+    public String asString() {
+        return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+    }
+}
+
+/**
+ * Append-only topic log stored in fixed-size, memory-mapped segment files under
+ * {@code <dir>/<topic>/}. Offsets are logical byte positions across all segments, segment i covers
+ * [i * segmentSize, (i + 1) * segmentSize). A record is a 4 byte length followed by the payload; a
+ * length of 0 marks the end of the log and -1 means "continued in the next segment".
+ */
+class PersistentTopic {
+
+    private static final int HEADER = 4;
+    private static final int END_OF_LOG = 0;
+    private static final int NEXT_SEGMENT = -1;
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    @Getter
+    private final String name;
+    @Getter
+    private final Path directory;
+    private final int segmentSize;
+    private final ConcurrentHashMap<Long, MappedByteBuffer> segments;
+    private final WaitStrategy waitStrategy;
+
+    // Guarded by this
+    private MappedByteBuffer activeSegment;
+
+    // Guarded by this, segments rolled away from since the last flush
+    private final List<MappedByteBuffer> unforced;
+
+    // Everything below this offset is fully written and visible to readers
+    private volatile long writeOffset;
+
+    public PersistentTopic(String name, Path baseDirectory) {
+        this(name, baseDirectory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public PersistentTopic(String name, Path baseDirectory, int segmentSize) {
+        if (segmentSize <= HEADER * 2) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.name = name;
+        this.directory = baseDirectory.resolve(name);
+        this.segmentSize = segmentSize;
+        segments = new ConcurrentHashMap<>();
+        unforced = new ArrayList<>();
+        waitStrategy = WaitStrategy.PARK;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recover();
+    }
+
+    public long publish(String msg) {
+        return append(msg.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Appends a record and returns its offset.
+     */
+    public synchronized long append(byte[] payload) {
+        if (payload.length == 0 || payload.length > segmentSize - HEADER * 2) {
+            throw new IllegalArgumentException("Invalid payload size: " + payload.length);
+        }
+        long offset = writeOffset;
+        int position = positionOf(offset);
+        if (position + HEADER + payload.length + HEADER > segmentSize) {
+            // Always leave room for the terminating header, then roll over to a fresh segment
+            activeSegment.putInt(position, NEXT_SEGMENT);
+            unforced.add(activeSegment);
+            offset = (segmentIndexOf(offset) + 1) * segmentSize;
+            activeSegment = segment(segmentIndexOf(offset));
+            position = 0;
+        }
+        ByteBuffer target = activeSegment.duplicate();
+        target.position(position + HEADER);
+        target.put(payload);
+        activeSegment.putInt(position + HEADER + payload.length, END_OF_LOG);
+        activeSegment.putInt(position, payload.length);
+        writeOffset = offset + HEADER + payload.length;
+        return offset;
+    }
+
+    /**
+     * Returns the record at the given offset, or null if nothing has been written there yet.
+     */
+    public TopicRecord read(long offset) {
+        while (offset < writeOffset) {
+            MappedByteBuffer segment = segment(segmentIndexOf(offset));
+            int position = positionOf(offset);
+            int length = segment.getInt(position);
+            if (length == NEXT_SEGMENT) {
+                offset = (segmentIndexOf(offset) + 1) * segmentSize;
+                continue;
+            }
+            ByteBuffer view = segment.duplicate();
+            view.position(position + HEADER);
+            view.limit(position + HEADER + length);
+            return new TopicRecord(offset, offset + HEADER + length, view.slice().asReadOnlyBuffer());
+        }
+        return null;
+    }
+
+    public TopicRecord take(long offset) throws InterruptedException {
+        int attempt = 0;
+        TopicRecord record;
+        while ((record = read(offset)) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(attempt++);
+        }
+        return record;
+    }
+
+    public long endOffset() {
+        return writeOffset;
+    }
+
+    /**
+     * Forces everything written so far to the storage device.
+     */
+    public synchronized void flush() {
+        for (MappedByteBuffer segment : unforced) {
+            segment.force();
+        }
+        unforced.clear();
+        activeSegment.force();
+    }
+
+    // Scans the newest segment to find where the previous process stopped writing
+    private void recover() {
+        long lastIndex = 0;
+        File[] files = directory.toFile().listFiles((dir, file) -> file.endsWith(".log"));
+        if (files != null) {
+            for (File file : files) {
+                String baseOffset = file.getName().substring(0, file.getName().length() - ".log".length());
+                lastIndex = Math.max(lastIndex, Long.parseLong(baseOffset) / segmentSize);
+            }
+        }
+        activeSegment = segment(lastIndex);
+        int position = 0;
+        while (position + HEADER <= segmentSize) {
+            int length = activeSegment.getInt(position);
+            if (length <= END_OF_LOG || position + HEADER + length > segmentSize) {
+                break;
+            }
+            position += HEADER + length;
+        }
+        writeOffset = lastIndex * segmentSize + position;
+    }
+
+    private MappedByteBuffer segment(long index) {
+        return segments.computeIfAbsent(index, i -> {
+            Path file = directory.resolve(String.format("%020d.log", i * segmentSize));
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                if (raf.length() < segmentSize) {
+                    raf.setLength(segmentSize);
+                }
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private long segmentIndexOf(long offset) {
+        return offset / segmentSize;
+    }
+
+    private int positionOf(long offset) {
+        return (int) (offset % segmentSize);
+    }
+}
+
+/**
+ * Named reader of a {@link PersistentTopic} whose position survives restarts through
+ * {@code <topic dir>/<name>.offset}.
+ */
+class PersistentSubscriber {
+
+    private final PersistentTopic topic;
+    private final Path offsetFile;
+    private volatile long offset;
+
+    @Getter
+    private final String name;
+
+    public PersistentSubscriber(PersistentTopic topic, String name) {
+        this.topic = topic;
+        this.name = name;
+        offsetFile = topic.getDirectory().resolve(name + ".offset");
+        try {
+            offset = Files.exists(offsetFile) ? Long.parseLong(new String(Files.readAllBytes(offsetFile), StandardCharsets.UTF_8).trim()) : 0L;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public TopicRecord poll() {
+        TopicRecord record = topic.read(offset);
+        if (record != null) {
+            offset = record.getNextOffset();
+        }
+        return record;
+    }
+
+    public TopicRecord read() throws InterruptedException {
+        TopicRecord record = topic.take(offset);
+        offset = record.getNextOffset();
+        return record;
+    }
+
+    public void seek(long offset) {
+        this.offset = offset;
+    }
+
+    public long position() {
+        return offset;
+    }
+
+    /**
+     * Persists the current position so a restarted subscriber resumes right after the last
+     * record it read.
+     */
+    public void commit() {
+        try {
+            Path tmp = offsetFile.resolveSibling(name + ".offset.tmp");
+            Files.write(tmp, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+public class PersistentTopicLog {
+
+    public static void main(String[] args) throws IOException {
+        Path dir = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("pubsub-log");
+        System.out.println("Topic log directory: " + dir);
+
+        // First run: publish a few messages and consume only part of them
+        PubSubQueueSystem pubSubQueueSystem = new PubSubQueueSystem();
+        pubSubQueueSystem.addPersistentTopic("orders", dir);
+        for (int i = 0; i < 10; i++) {
+            pubSubQueueSystem.publish("orders", "order-" + i);
+        }
+        PersistentSubscriber billing = pubSubQueueSystem.subscribePersistent("orders", "billing");
+        for (int i = 0; i < 4; i++) {
+            System.out.println("Before restart | billing read: " + billing.poll().asString());
+        }
+        billing.commit();
+        pubSubQueueSystem.getPersistentTopic("orders").flush();
+
+        // Simulated restart: a fresh system over the same directory replays from the stored offset
+        PubSubQueueSystem restarted = new PubSubQueueSystem();
+        restarted.addPersistentTopic("orders", dir);
+        restarted.publish("orders", "order-10");
+        PersistentSubscriber billingAfterRestart = restarted.subscribePersistent("orders", "billing");
+        TopicRecord record;
+        while ((record = billingAfterRestart.poll()) != null) {
+            System.out.println("After restart | billing read: " + record.asString() + " @ offset " + record.getOffset());
+        }
+        billingAfterRestart.commit();
+    }
+}
@@ -0,0 +1,465 @@
+package multithreaded;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Chooses the cluster a job is placed on from an index over free capacity. Implementations are not
+ * thread-safe, {@link ClusterManager} keeps one per shard, serializes access to it under the
+ * shard's lock and tells the policy whenever a cluster's free capacity changes.
+ */
+interface PlacementPolicy {
+
+    void add(Cluster cluster);
+
+    void update(Cluster cluster);
+
+    /**
+     * A cluster whose indexed free RAM and CPU both fit the job, or null if there is none.
+     */
+    Cluster select(Job job);
+}
+
+/**
+ * Lowest-index cluster that fits, found by descending a segment tree that keeps the maximum free
+ * RAM and CPU of every subtree. Subtrees that cannot fit either resource are pruned.
+ */
+class FirstFitPlacement implements PlacementPolicy {
+
+    private final Map<Cluster, Integer> positions;
+    private final List<Cluster> clusters;
+    private int size;
+    private int[] maxRam;
+    private int[] maxCpu;
+
+    public FirstFitPlacement() {
+        positions = new IdentityHashMap<>();
+        clusters = new ArrayList<>();
+        size = 1;
+        maxRam = new int[]{-1, -1};
+        maxCpu = new int[]{-1, -1};
+    }
+
+    @Override
+    public void add(Cluster cluster) {
+        positions.put(cluster, clusters.size());
+        clusters.add(cluster);
+        if (clusters.size() > size) {
+            while (size < clusters.size()) {
+                size <<= 1;
+            }
+            maxRam = new int[2 * size];
+            maxCpu = new int[2 * size];
+            Arrays.fill(maxRam, -1);
+            Arrays.fill(maxCpu, -1);
+            for (Cluster c : clusters) {
+                update(c);
+            }
+        } else {
+            update(cluster);
+        }
+    }
+
+    @Override
+    public void update(Cluster cluster) {
+        int node = size + positions.get(cluster);
+        maxRam[node] = cluster.getFreeRam();
+        maxCpu[node] = cluster.getFreeCpu();
+        for (node >>= 1; node > 0; node >>= 1) {
+            maxRam[node] = Math.max(maxRam[2 * node], maxRam[2 * node + 1]);
+            maxCpu[node] = Math.max(maxCpu[2 * node], maxCpu[2 * node + 1]);
+        }
+    }
+
+    @Override
+    public Cluster select(Job job) {
+        int position = find(1, job.getRam(), job.getCpu());
+        return position < 0 ? null : clusters.get(position);
+    }
+
+    private int find(int node, int ram, int cpu) {
+        if (maxRam[node] < ram || maxCpu[node] < cpu) {
+            return -1;
+        }
+        if (node >= size) {
+            return node - size;
+        }
+        int left = find(2 * node, ram, cpu);
+        return left >= 0 ? left : find(2 * node + 1, ram, cpu);
+    }
+}
+
+/**
+ * Keeps clusters in a treap ordered by a policy-specific key derived from their free capacity (free
+ * RAM, or utilization for DRF), then by free CPU. Every node also holds the largest free RAM and
+ * CPU in its subtree, so a search skips subtrees where nothing fits and an update costs O(log n).
+ */
+abstract class OrderedPlacement implements PlacementPolicy {
+
+    static final class Slot {
+        final Cluster cluster;
+        final long index;
+        final int freeRam;
+        final int freeCpu;
+        final int key;
+
+        Slot(Cluster cluster, long index, int freeRam, int freeCpu, int key) {
+            this.cluster = cluster;
+            this.index = index;
+            this.freeRam = freeRam;
+            this.freeCpu = freeCpu;
+            this.key = key;
+        }
+    }
+
+    private static final class Node {
+        private final Slot slot;
+        private final int priority;
+        private Node left;
+        private Node right;
+        private int maxRam;
+        private int maxCpu;
+
+        private Node(Slot slot, int priority) {
+            this.slot = slot;
+            this.priority = priority;
+        }
+    }
+
+    private static final Comparator<Slot> ORDER = Comparator.comparingInt((Slot slot) -> slot.key)
+            .thenComparingInt(slot -> slot.freeCpu)
+            .thenComparingLong(slot -> slot.index);
+
+    private final Map<Cluster, Slot> current;
+    private final Random priorities;
+    private Node root;
+    private long added;
+
+    OrderedPlacement() {
+        current = new IdentityHashMap<>();
+        priorities = new Random(42);
+    }
+
+    abstract int keyOf(Cluster cluster, int freeRam, int freeCpu);
+
+    @Override
+    public void add(Cluster cluster) {
+        insert(cluster, added++);
+    }
+
+    @Override
+    public void update(Cluster cluster) {
+        Slot old = current.get(cluster);
+        root = delete(root, old);
+        insert(cluster, old.index);
+    }
+
+    /**
+     * The first slot in order that fits, not before slots with the given key when from is set.
+     */
+    Slot first(Integer from, int ram, int cpu) {
+        return first(root, Objects.isNull(from) ? null : new Slot(null, Long.MIN_VALUE, 0, Integer.MIN_VALUE, from), ram, cpu);
+    }
+
+    /**
+     * The last slot in order with at least this much free CPU.
+     */
+    Slot last(int cpu) {
+        Node node = root;
+        Slot found = null;
+        // Right first; a subtree without enough CPU anywhere is never entered
+        while (Objects.nonNull(node) && node.maxCpu >= cpu) {
+            if (Objects.nonNull(node.right) && node.right.maxCpu >= cpu) {
+                node = node.right;
+            } else if (node.slot.freeCpu >= cpu) {
+                found = node.slot;
+                break;
+            } else {
+                node = node.left;
+            }
+        }
+        return found;
+    }
+
+    private static Slot first(Node node, Slot from, int ram, int cpu) {
+        if (Objects.isNull(node) || node.maxRam < ram || node.maxCpu < cpu) {
+            return null;
+        }
+        if (Objects.nonNull(from) && ORDER.compare(node.slot, from) < 0) {
+            return first(node.right, from, ram, cpu);
+        }
+        Slot slot = first(node.left, from, ram, cpu);
+        if (Objects.nonNull(slot)) {
+            return slot;
+        }
+        if (node.slot.freeRam >= ram && node.slot.freeCpu >= cpu) {
+            return node.slot;
+        }
+        return first(node.right, null, ram, cpu);
+    }
+
+    private void insert(Cluster cluster, long index) {
+        int freeRam = cluster.getFreeRam();
+        int freeCpu = cluster.getFreeCpu();
+        Slot slot = new Slot(cluster, index, freeRam, freeCpu, keyOf(cluster, freeRam, freeCpu));
+        current.put(cluster, slot);
+        root = insert(root, pull(new Node(slot, priorities.nextInt())));
+    }
+
+    private static Node insert(Node node, Node fresh) {
+        if (Objects.isNull(node)) {
+            return fresh;
+        }
+        if (fresh.priority > node.priority) {
+            Node[] parts = split(node, fresh.slot);
+            fresh.left = parts[0];
+            fresh.right = parts[1];
+            return pull(fresh);
+        }
+        if (ORDER.compare(fresh.slot, node.slot) < 0) {
+            node.left = insert(node.left, fresh);
+        } else {
+            node.right = insert(node.right, fresh);
+        }
+        return pull(node);
+    }
+
+    // The nodes before the slot and the nodes after it
+    private static Node[] split(Node node, Slot slot) {
+        if (Objects.isNull(node)) {
+            return new Node[2];
+        }
+        if (ORDER.compare(node.slot, slot) < 0) {
+            Node[] parts = split(node.right, slot);
+            node.right = parts[0];
+            parts[0] = pull(node);
+            return parts;
+        }
+        Node[] parts = split(node.left, slot);
+        node.left = parts[1];
+        parts[1] = pull(node);
+        return parts;
+    }
+
+    private static Node delete(Node node, Slot slot) {
+        int cmp = ORDER.compare(slot, node.slot);
+        if (cmp == 0) {
+            return merge(node.left, node.right);
+        }
+        if (cmp < 0) {
+            node.left = delete(node.left, slot);
+        } else {
+            node.right = delete(node.right, slot);
+        }
+        return pull(node);
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (Objects.isNull(left)) {
+            return right;
+        }
+        if (Objects.isNull(right)) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return pull(left);
+        }
+        right.left = merge(left, right.left);
+        return pull(right);
+    }
+
+    private static Node pull(Node node) {
+        node.maxRam = node.slot.freeRam;
+        node.maxCpu = node.slot.freeCpu;
+        for (Node child : new Node[]{node.left, node.right}) {
+            if (Objects.nonNull(child)) {
+                node.maxRam = Math.max(node.maxRam, child.maxRam);
+                node.maxCpu = Math.max(node.maxCpu, child.maxCpu);
+            }
+        }
+        return node;
+    }
+}
+
+/**
+ * Cluster with the least free RAM that still fits (ties broken by least free CPU), which keeps
+ * large holes open for large jobs. Clusters are ordered by free RAM, so this is the first fit at or
+ * after the job's RAM and takes O(log n).
+ */
+class BestFitPlacement extends OrderedPlacement {
+
+    @Override
+    int keyOf(Cluster cluster, int freeRam, int freeCpu) {
+        return freeRam;
+    }
+
+    @Override
+    public Cluster select(Job job) {
+        Slot slot = first(job.getRam(), job.getRam(), job.getCpu());
+        return Objects.isNull(slot) ? null : slot.cluster;
+    }
+}
+
+/**
+ * Cluster with the most free RAM, which spreads load evenly. This is the last cluster in order with
+ * enough free CPU, found in O(log n); it fits if its free RAM does.
+ */
+class WorstFitPlacement extends OrderedPlacement {
+
+    @Override
+    int keyOf(Cluster cluster, int freeRam, int freeCpu) {
+        return freeRam;
+    }
+
+    @Override
+    public Cluster select(Job job) {
+        Slot slot = last(job.getCpu());
+        return Objects.isNull(slot) || slot.freeRam < job.getRam() ? null : slot.cluster;
+    }
+}
+
+/**
+ * Cluster whose dominant resource (the larger of its RAM and CPU utilization, in per mille) is the
+ * least used, which balances clusters across both resources instead of just one. The search prunes
+ * subtrees on their maximum free RAM and CPU like {@link FirstFitPlacement}: O(log n) while the
+ * clusters with enough RAM also tend to have enough CPU, degrading towards a scan when free RAM
+ * and free CPU sit on disjoint clusters.
+ */
+class DominantResourceFairPlacement extends OrderedPlacement {
+
+    @Override
+    int keyOf(Cluster cluster, int freeRam, int freeCpu) {
+        double ramShare = cluster.getTotalRam() == 0 ? 1 : 1 - (double) freeRam / cluster.getTotalRam();
+        double cpuShare = cluster.getTotalCpu() == 0 ? 1 : 1 - (double) freeCpu / cluster.getTotalCpu();
+        return (int) (Math.max(ramShare, cpuShare) * 1000);
+    }
+
+    @Override
+    public Cluster select(Job job) {
+        Slot slot = first(null, job.getRam(), job.getCpu());
+        return Objects.isNull(slot) ? null : slot.cluster;
+    }
+}
+
+/**
+ * Discrete-event placement simulation over 10k clusters. Jobs arrive every tick, run for a random
+ * number of ticks and release their resources; each policy is driven with the same seed and the
+ * run reports placement latency, rejected placements and the average RAM/CPU utilization.
+ */
+public class PlacementSimulation {
+
+    private static final int CLUSTERS = 10_000;
+    private static final int TICKS = 2_000;
+    private static final int JOBS_PER_TICK = 300;
+
+    // The old ClusterManager behaviour: scan every cluster in order and take the first fit
+    private static class LinearScanPlacement implements PlacementPolicy {
+        private final List<Cluster> clusters = new ArrayList<>();
+
+        @Override
+        public void add(Cluster cluster) {
+            clusters.add(cluster);
+        }
+
+        @Override
+        public void update(Cluster cluster) {
+        }
+
+        @Override
+        public Cluster select(Job job) {
+            for (Cluster cluster : clusters) {
+                if (cluster.fits(job)) {
+                    return cluster;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Running {
+        private final Job job;
+        private final Cluster cluster;
+        private final long endTick;
+
+        private Running(Job job, Cluster cluster, long endTick) {
+            this.job = job;
+            this.cluster = cluster;
+            this.endTick = endTick;
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, Supplier<PlacementPolicy>> policies = new LinkedHashMap<>();
+        policies.put("linear-scan", LinearScanPlacement::new);
+        policies.put("first-fit", FirstFitPlacement::new);
+        policies.put("best-fit", BestFitPlacement::new);
+        policies.put("worst-fit", WorstFitPlacement::new);
+        policies.put("dominant-resource-fair", DominantResourceFairPlacement::new);
+        for (Map.Entry<String, Supplier<PlacementPolicy>> policy : policies.entrySet()) {
+            simulate(policy.getKey(), policy.getValue());
+        }
+    }
+
+    private static void simulate(String name, Supplier<PlacementPolicy> policy) {
+        Random random = new Random(42);
+        // One shard, so every policy chooses among the whole fleet
+        ClusterManager clusterManager = new ClusterManager(1);
+        clusterManager.setPlacementPolicy(policy);
+        long totalRam = 0;
+        long totalCpu = 0;
+        for (int id = 0; id < CLUSTERS; id++) {
+            int ram = 32 << random.nextInt(4);
+            int cpu = 8 << random.nextInt(3);
+            clusterManager.addCluster(new Cluster(id, ram, cpu));
+            totalRam += ram;
+            totalCpu += cpu;
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        PriorityQueue<Running> running = new PriorityQueue<>(Comparator.comparingLong(r -> r.endTick));
+        long rejected = 0;
+        long usedRam = 0;
+        long usedCpu = 0;
+        double ramUtilization = 0;
+        double cpuUtilization = 0;
+        int jobId = 0;
+
+        for (long tick = 0; tick < TICKS; tick++) {
+            while (!running.isEmpty() && running.peek().endTick <= tick) {
+                Running done = running.poll();
+                done.cluster.release(done.job);
+                usedRam -= done.job.getRam();
+                usedCpu -= done.job.getCpu();
+            }
+            for (int i = 0; i < JOBS_PER_TICK; i++) {
+                Job job = new Job(jobId++, 1 << random.nextInt(7), 1 + random.nextInt(8), 0L, 0);
+                long start = System.nanoTime();
+                Cluster cluster = clusterManager.allocateResource(job);
+                latency.record(System.nanoTime() - start);
+                if (cluster == null) {
+                    rejected++;
+                    continue;
+                }
+                usedRam += job.getRam();
+                usedCpu += job.getCpu();
+                running.add(new Running(job, cluster, tick + 20 + random.nextInt(200)));
+            }
+            ramUtilization += (double) usedRam / totalRam;
+            cpuUtilization += (double) usedCpu / totalCpu;
+        }
+
+        System.out.println(String.format("%-24s rejected=%-7d ram util=%5.1f%% cpu util=%5.1f%% placement latency(ns) %s",
+                name, rejected, 100 * ramUtilization / TICKS,
+                100 * cpuUtilization / TICKS, latency.summary()));
+    }
+}
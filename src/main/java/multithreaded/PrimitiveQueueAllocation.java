@@ -0,0 +1,97 @@
+package multithreaded;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Allocation-rate check for the int-specialized queues. One producer and one consumer thread
+ * push the same number of elements through each queue; after a warm-up phase (JIT + ring growth)
+ * every thread reports the heap bytes it allocated per operation, and the check fails unless both
+ * threads allocated nothing at all. The thread bean is looked up once so that reading the counter
+ * doesn't allocate either.
+ */
+public class PrimitiveQueueAllocation {
+
+    private static final int WARMUP_OPS = 2_000_000;
+    private static final int MEASURED_OPS = 10_000_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    interface IntProducer {
+        void produce(int i) throws InterruptedException;
+    }
+
+    interface IntConsumer {
+        int consume() throws InterruptedException;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        IntBoundedBlockingQueue bounded = new IntBoundedBlockingQueue(1024);
+        boolean allocationFree = report("IntBoundedBlockingQueue", bounded::produce, bounded::consume);
+
+        IntMessageQueue unbounded = new IntMessageQueue();
+        // Cap the backlog so the ring reaches a stable size instead of growing with the producer's lead
+        allocationFree &= report("IntMessageQueue", i -> {
+            while (unbounded.size() >= 1024) {
+                Thread.yield();
+            }
+            unbounded.produce(i);
+        }, unbounded::consume);
+
+        if (!allocationFree) {
+            System.out.println("FAIL | steady-state produce/consume allocated on the heap");
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+
+    private static boolean report(String name, IntProducer producer, IntConsumer consumer) throws InterruptedException {
+        long[] producerBytes = new long[1];
+        long[] consumerBytes = new long[1];
+        CountDownLatch done = new CountDownLatch(2);
+
+        Thread producerThread = new Thread(() -> {
+            try {
+                for (int i = 0; i < WARMUP_OPS; i++) {
+                    producer.produce(i);
+                }
+                long before = allocatedBytes();
+                for (int i = 0; i < MEASURED_OPS; i++) {
+                    producer.produce(i);
+                }
+                producerBytes[0] = allocatedBytes() - before;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        });
+        Thread consumerThread = new Thread(() -> {
+            try {
+                for (int i = 0; i < WARMUP_OPS; i++) {
+                    consumer.consume();
+                }
+                long before = allocatedBytes();
+                for (int i = 0; i < MEASURED_OPS; i++) {
+                    consumer.consume();
+                }
+                consumerBytes[0] = allocatedBytes() - before;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        });
+        producerThread.start();
+        consumerThread.start();
+        done.await();
+
+        System.out.println(name + " | producer bytes/op: " + (double) producerBytes[0] / MEASURED_OPS
+                + " | consumer bytes/op: " + (double) consumerBytes[0] / MEASURED_OPS);
+        return producerBytes[0] == 0 && consumerBytes[0] == 0;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
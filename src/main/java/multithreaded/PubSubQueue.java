@@ -2,38 +2,69 @@ package multithreaded;
 
 import lombok.Getter;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
+/**
+ * Anything a topic delivers to. {@link Subscriber} queues messages for the caller to read, the
+ * handler-based subscribers push them to a {@link MessageHandler} on their own threads.
+ */
+interface TopicSubscriber {
+
+    void push(String msg);
+
+    String getTopicName();
+
+    /**
+     * Stops any thread delivering to this subscriber, called once it is unsubscribed.
+     */
+    default void close() {
+    }
+}
+
+/**
+ * Subscribers live in a copy-on-write list: subscribe/unsubscribe swap in a new array while
+ * publish iterates whatever snapshot it started with, without taking a lock.
+ */
 class Topic {
 
     @Getter
     private final String name;
 
-    private final List<Subscriber> subscribers;
+    private final List<TopicSubscriber> subscribers;
 
     public Topic(String name) {
         this.name = name;
-        subscribers = new ArrayList<>();
+        subscribers = new CopyOnWriteArrayList<>();
     }
 
-    public void subscribe(Subscriber subscriber) {
+    public void subscribe(TopicSubscriber subscriber) {
         subscribers.add(subscriber);
     }
 
+    public boolean unsubscribe(TopicSubscriber subscriber) {
+        return subscribers.remove(subscriber);
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
     public void publish(String msg) {
-        for (Subscriber subscriber : subscribers) {
+        for (TopicSubscriber subscriber : subscribers) {
             subscriber.push(msg);
         }
     }
 }
 
-class Subscriber {
+class Subscriber implements TopicSubscriber {
 
     private final LinkedBlockingQueue<String> q;
 
@@ -45,6 +76,7 @@ class Subscriber {
         this.topicName = topicName;
     }
 
+    @Override
     public void push(String msg) {
         q.add(msg);
     }
@@ -54,31 +86,176 @@ class Subscriber {
         return msg;
     }
 
+    public String poll() {
+        return q.poll();
+    }
+
 }
 
 class PubSubQueueSystem {
 
     private final ConcurrentHashMap<String, Topic> topicMap;
 
+    private final ConcurrentHashMap<String, RingTopic> ringTopicMap;
+
+    private final ConcurrentHashMap<String, PersistentTopic> persistentTopicMap;
+
+    private final TopicTrie patternIndex;
+
+    private static final int DISPATCH_BATCH_SIZE = 64;
+
+    // Created on the first pushed subscription, guarded by this
+    private SubscriptionDispatcher dispatcher;
+
+    // Handler subscriptions made here, closed when unsubscribed or on shutdown
+    private final Set<TopicSubscriber> pushed;
+
+    // Guarded by this
+    private boolean shutdown;
+
     public PubSubQueueSystem() {
         topicMap = new ConcurrentHashMap<String, Topic>();
+        ringTopicMap = new ConcurrentHashMap<String, RingTopic>();
+        persistentTopicMap = new ConcurrentHashMap<String, PersistentTopic>();
+        patternIndex = new TopicTrie();
+        pushed = ConcurrentHashMap.newKeySet();
     }
 
-    public void subscribe(String topic, Subscriber subscriber) {
-        Topic t = topicMap.get(topic);
-        if (t != null) {
-            t.subscribe(subscriber);
-        } else {
-            throw new IllegalArgumentException("Topic not found: " + topic);
+    public void subscribe(String topic, TopicSubscriber subscriber) {
+        getTopic(topic).subscribe(subscriber);
+    }
+
+    /**
+     * Registers a handler that is pushed messages instead of polling for them. Thread count stays
+     * flat as handlers are added: DISPATCHER_POOL shares one pool sized to the core count, and
+     * VIRTUAL_THREAD parks one virtual thread per handler. Rejected once the system is shut down.
+     */
+    public synchronized TopicSubscriber subscribe(String topic, MessageHandler handler, DeliveryMode mode) {
+        if (shutdown) {
+            throw new IllegalStateException("PubSubQueueSystem is shut down");
         }
+        Topic t = getTopic(topic);
+        TopicSubscriber subscriber = mode == DeliveryMode.VIRTUAL_THREAD
+                ? new VirtualThreadSubscriber(topic, handler, DISPATCH_BATCH_SIZE)
+                : new AsyncSubscriber(topic, handler, dispatcher());
+        pushed.add(subscriber);
+        t.subscribe(subscriber);
+        return subscriber;
+    }
+
+    public boolean unsubscribe(String topic, TopicSubscriber subscriber) {
+        boolean removed = getTopic(topic).unsubscribe(subscriber);
+        if (removed && pushed.remove(subscriber)) {
+            subscriber.close();
+        }
+        return removed;
+    }
+
+    /**
+     * Subscribes to every topic matching a pattern such as {@code sports.*} or {@code news.#},
+     * including topics added later.
+     */
+    public void subscribePattern(String pattern, TopicSubscriber subscriber) {
+        patternIndex.subscribe(pattern, subscriber);
+    }
+
+    public boolean unsubscribePattern(String pattern, TopicSubscriber subscriber) {
+        return patternIndex.unsubscribe(pattern, subscriber);
+    }
+
+    public RingSubscriber subscribeRing(String topic) {
+        return getRingTopic(topic).subscribe();
+    }
+
+    public PersistentSubscriber subscribePersistent(String topic, String subscriberName) {
+        return new PersistentSubscriber(getPersistentTopic(topic), subscriberName);
     }
 
     public void publish(String topic, String msg) {
-        topicMap.get(topic).publish(msg);
+        RingTopic ringTopic = ringTopicMap.get(topic);
+        if (ringTopic != null) {
+            ringTopic.publish(msg);
+            return;
+        }
+        PersistentTopic persistentTopic = persistentTopicMap.get(topic);
+        if (persistentTopic != null) {
+            persistentTopic.publish(msg);
+            return;
+        }
+        getTopic(topic).publish(msg);
+        for (TopicSubscriber subscriber : patternIndex.match(topic)) {
+            subscriber.push(msg);
+        }
     }
 
+    /**
+     * Adding a topic that already exists keeps the existing topic and its subscribers.
+     */
     public void addTopic(String name) {
-        topicMap.put(name, new Topic(name));
+        topicMap.computeIfAbsent(name, Topic::new);
+    }
+
+    /**
+     * Stops the threads of every handler subscription, pending messages are dropped and later
+     * handler subscriptions are rejected.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        for (TopicSubscriber subscriber : pushed) {
+            pushed.remove(subscriber);
+            subscriber.close();
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    private synchronized SubscriptionDispatcher dispatcher() {
+        if (dispatcher == null) {
+            dispatcher = new SubscriptionDispatcher(Runtime.getRuntime().availableProcessors(), DISPATCH_BATCH_SIZE);
+        }
+        return dispatcher;
+    }
+
+    public Topic getTopic(String topic) {
+        Topic t = topicMap.get(topic);
+        if (t == null) {
+            throw new IllegalArgumentException("Topic not found: " + topic);
+        }
+        return t;
+    }
+
+    /**
+     * Adding a ring topic that already exists keeps the existing ring, its subscribers and their
+     * cursors; the capacity only applies to a new ring.
+     */
+    public void addRingTopic(String name, int capacity) {
+        ringTopicMap.computeIfAbsent(name, topic -> new RingTopic(topic, capacity));
+    }
+
+    /**
+     * Adds a topic whose messages are stored in memory-mapped segment files under dir and survive
+     * restarts. Re-adding an existing topic directory resumes its log; adding a topic this system
+     * already has keeps the existing one, so only one writer ever maps its segments.
+     */
+    public void addPersistentTopic(String name, Path dir) {
+        persistentTopicMap.computeIfAbsent(name, topic -> new PersistentTopic(topic, dir));
+    }
+
+    public PersistentTopic getPersistentTopic(String topic) {
+        PersistentTopic t = persistentTopicMap.get(topic);
+        if (t == null) {
+            throw new IllegalArgumentException("Persistent topic not found: " + topic);
+        }
+        return t;
+    }
+
+    public RingTopic getRingTopic(String topic) {
+        RingTopic t = ringTopicMap.get(topic);
+        if (t == null) {
+            throw new IllegalArgumentException("Ring topic not found: " + topic);
+        }
+        return t;
     }
 
 }
@@ -1,4 +1,494 @@
 package multithreaded;
 
-public class RateLimitter {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket: up to burst permits are available at once and they refill at a steady rate. The
+ * bucket is kept as the time at which it will be full again (GCRA, the generic cell rate
+ * algorithm), one long updated by CAS. Times are in 1/1024 ns so fractional intervals don't add up
+ * to a rate error.
+ */
+class TokenBucketLimiter extends RateLimitter {
+
+    private final long interval;
+    private final long tolerance;
+    // Scaled time at which every permit handed out so far has been paid back
+    private final AtomicLong fullAt;
+
+    TokenBucketLimiter(double permitsPerSecond, int burst, LongSupplier ticker) {
+        super(ticker);
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Invalid burst: " + burst);
+        }
+        interval = scaledInterval(permitsPerSecond);
+        tolerance = scaled(interval, burst);
+        fullAt = new AtomicLong(scaledNow());
+    }
+
+    @Override
+    public boolean tryAcquire(int permits) {
+        long cost = scaled(interval, checkPermits(permits));
+        while (true) {
+            long now = scaledNow();
+            long current = fullAt.get();
+            long next = later(current, now, tolerance) + cost;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
+
+/**
+ * Leaky bucket as a queue: admitted requests leave at an even rate, one interval apart, and at most
+ * capacity of them wait in the bucket. {@link #reserve} tells the caller how long to wait before
+ * going ahead; {@link #tryAcquire} only admits a request that can leave right away, so unlike the
+ * token bucket it never lets a burst through.
+ */
+class LeakyBucketLimiter extends RateLimitter {
+
+    private final long interval;
+    private final long capacity;
+    // Scaled time at which the next request may leave
+    private final AtomicLong nextLeave;
+
+    LeakyBucketLimiter(double permitsPerSecond, int capacity, LongSupplier ticker) {
+        super(ticker);
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        interval = scaledInterval(permitsPerSecond);
+        this.capacity = scaled(interval, capacity);
+        nextLeave = new AtomicLong(scaledNow());
+    }
+
+    @Override
+    public boolean tryAcquire(int permits) {
+        return acquire(permits, 0L) == 0L;
+    }
+
+    /**
+     * Queues the request and returns how many nanoseconds the caller has to wait before it leaves
+     * the bucket, or -1 if the bucket is full.
+     */
+    public long reserve(int permits) {
+        return acquire(permits, capacity);
+    }
+
+    private long acquire(int permits, long maxWait) {
+        long cost = scaled(interval, checkPermits(permits));
+        while (true) {
+            long now = scaledNow();
+            long current = nextLeave.get();
+            long leave = later(current, now, capacity + cost);
+            long wait = leave - now;
+            if (wait > maxWait) {
+                return -1L;
+            }
+            if (nextLeave.compareAndSet(current, leave + cost)) {
+                return wait >> SCALE;
+            }
+        }
+    }
+}
+
+/**
+ * At most limit permits per fixed window. The window number and the permits taken in it share one
+ * long, 32 bits each, so starting a new window and counting in it is a single CAS. Window numbers
+ * wrap after 2^32 windows; a limiter left idle for exactly a multiple of that starts with a stale
+ * count, which only makes it stricter for one window.
+ */
+class FixedWindowLimiter extends RateLimitter {
+
+    private final int limit;
+    private final long window;
+    private final long origin;
+    private final AtomicLong state;
+
+    FixedWindowLimiter(int limit, long window, TimeUnit unit, LongSupplier ticker) {
+        super(ticker);
+        this.limit = checkLimit(limit, Integer.MAX_VALUE);
+        this.window = checkWindow(window, unit);
+        origin = ticker.getAsLong();
+        state = new AtomicLong();
+    }
+
+    @Override
+    public boolean tryAcquire(int permits) {
+        checkPermits(permits);
+        while (true) {
+            long current = state.get();
+            int index = (int) ((ticker.getAsLong() - origin) / window);
+            long count = (int) (current >>> 32) == index ? current & 0xFFFFFFFFL : 0L;
+            if (count + permits > limit) {
+                return false;
+            }
+            if (state.compareAndSet(current, (long) index << 32 | count + permits)) {
+                return true;
+            }
+        }
+    }
+}
+
+/**
+ * Exact sliding window: at most limit permits in any window-long span. The times of the last limit
+ * permits are kept in a ring, a permit is admitted once the one taken limit permits earlier has left
+ * the window. A CAS on the permit sequence claims ring slots, so memory is one long per permit
+ * of limit. A thread that stalls between its CAS and writing its slot while limit others are
+ * admitted leaves an older time behind, which admits one permit early.
+ */
+class SlidingWindowLogLimiter extends RateLimitter {
+
+    private final int limit;
+    private final long window;
+    private final AtomicLong sequence;
+    private final AtomicLongArray times;
+
+    SlidingWindowLogLimiter(int limit, long window, TimeUnit unit, LongSupplier ticker) {
+        super(ticker);
+        this.limit = checkLimit(limit, Integer.MAX_VALUE);
+        this.window = checkWindow(window, unit);
+        sequence = new AtomicLong();
+        times = new AtomicLongArray(limit);
+        long expired = ticker.getAsLong() - this.window;
+        for (int i = 0; i < limit; i++) {
+            times.set(i, expired);
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(int permits) {
+        if (checkPermits(permits) > limit) {
+            return false;
+        }
+        while (true) {
+            long first = sequence.get();
+            long now = ticker.getAsLong();
+            // The last of these permits replaces the time of the one taken limit permits before it
+            long evicted = times.get((int) ((first + permits - 1) % limit));
+            if (now - evicted < window) {
+                return false;
+            }
+            if (sequence.compareAndSet(first, first + permits)) {
+                for (long i = first; i < first + permits; i++) {
+                    times.lazySet((int) (i % limit), now);
+                }
+                return true;
+            }
+        }
+    }
+}
+
+/**
+ * Approximate sliding window: the permits of the current fixed window plus those of the previous
+ * one, weighted by how much of it still overlaps the sliding window. This assumes the previous
+ * window's permits were spread evenly. Window number (16 bits), previous and current count (24 bits
+ * each) share one long.
+ */
+class SlidingWindowCounterLimiter extends RateLimitter {
+
+    private static final long COUNT_MASK = (1L << 24) - 1;
+
+    private final int limit;
+    private final long window;
+    private final long origin;
+    private final AtomicLong state;
+
+    SlidingWindowCounterLimiter(int limit, long window, TimeUnit unit, LongSupplier ticker) {
+        super(ticker);
+        this.limit = checkLimit(limit, (int) COUNT_MASK);
+        this.window = checkWindow(window, unit);
+        origin = ticker.getAsLong();
+        state = new AtomicLong();
+    }
+
+    @Override
+    public boolean tryAcquire(int permits) {
+        checkPermits(permits);
+        while (true) {
+            long current = state.get();
+            long elapsed = ticker.getAsLong() - origin;
+            long index = elapsed / window & 0xFFFF;
+            long behind = index - (current >>> 48) & 0xFFFF;
+            long previous;
+            long count;
+            if (behind == 0) {
+                previous = current >>> 24 & COUNT_MASK;
+                count = current & COUNT_MASK;
+            } else {
+                previous = behind == 1 ? current & COUNT_MASK : 0L;
+                count = 0L;
+            }
+            double overlap = 1.0 - (double) (elapsed % window) / window;
+            if (previous * overlap + count + permits > limit) {
+                return false;
+            }
+            if (state.compareAndSet(current, index << 48 | previous << 24 | count + permits)) {
+                return true;
+            }
+        }
+    }
+}
+
+/**
+ * Non-blocking rate limiters for the request path. Every algorithm keeps its state in one
+ * CAS-updated long (the sliding log adds a preallocated ring), so tryAcquire takes no lock and
+ * allocates nothing; a rejection is a read without any write.
+ * <p>
+ * Running this class checks how many permits each limiter admits against its configured rate,
+ * first on a fake clock and then with threads on the real one. Throughput of tryAcquire is
+ * measured by the JMH {@code RateLimiterBenchmark}.
+ */
+public abstract class RateLimitter {
+
+    // Token and leaky bucket times are in 1/1024 ns
+    static final int SCALE = 10;
+    // Legitimate lead of a bucket's time over now, beyond its tolerance, from threads racing
+    private static final long MAX_SKEW = TimeUnit.SECONDS.toNanos(1) << SCALE;
+
+    final LongSupplier ticker;
+
+    RateLimitter(LongSupplier ticker) {
+        this.ticker = ticker;
+    }
+
+    public static RateLimitter tokenBucket(double permitsPerSecond, int burst) {
+        return new TokenBucketLimiter(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    public static RateLimitter leakyBucket(double permitsPerSecond, int capacity) {
+        return new LeakyBucketLimiter(permitsPerSecond, capacity, System::nanoTime);
+    }
+
+    public static RateLimitter fixedWindow(int limit, long window, TimeUnit unit) {
+        return new FixedWindowLimiter(limit, window, unit, System::nanoTime);
+    }
+
+    public static RateLimitter slidingWindowLog(int limit, long window, TimeUnit unit) {
+        return new SlidingWindowLogLimiter(limit, window, unit, System::nanoTime);
+    }
+
+    public static RateLimitter slidingWindowCounter(int limit, long window, TimeUnit unit) {
+        return new SlidingWindowCounterLimiter(limit, window, unit, System::nanoTime);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Takes the permits if the rate allows it right now, never waits.
+     */
+    public abstract boolean tryAcquire(int permits);
+
+    long scaledNow() {
+        return ticker.getAsLong() << SCALE;
+    }
+
+    /**
+     * The later of a bucket time and now. Scaled times wrap after about 100 days, so a bucket time
+     * further ahead than it can legitimately be is one left behind by a long idle period.
+     */
+    static long later(long bucketTime, long now, long tolerance) {
+        long ahead = bucketTime - now;
+        return ahead > 0 && ahead <= tolerance + MAX_SKEW ? bucketTime : now;
+    }
+
+    static long scaledInterval(double permitsPerSecond) {
+        double interval = TimeUnit.SECONDS.toNanos(1) * (double) (1 << SCALE) / permitsPerSecond;
+        // Slower than a permit a day would need a window, not a bucket
+        if (!(interval >= 1.0) || interval > TimeUnit.DAYS.toNanos(1) << SCALE) {
+            throw new IllegalArgumentException("Invalid rate: " + permitsPerSecond);
+        }
+        return Math.round(interval);
+    }
+
+    static long scaled(long interval, int permits) {
+        if (permits > 0 && interval > (Long.MAX_VALUE >> 2) / permits) {
+            throw new IllegalArgumentException("Too many permits for the rate: " + permits);
+        }
+        return interval * permits;
+    }
+
+    static int checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Invalid permits: " + permits);
+        }
+        return permits;
+    }
+
+    static int checkLimit(int limit, int max) {
+        if (limit <= 0 || limit > max) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        return limit;
+    }
+
+    static long checkWindow(long window, TimeUnit unit) {
+        long nanos = unit.toNanos(window);
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + window + " " + unit);
+        }
+        return nanos;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean ok = checkFakeClock() & checkRealClock();
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Offers ten times the allowed rate for 10 simulated seconds, every 1/10000 s, and compares the
+     * admitted permits with what each algorithm allows.
+     */
+    private static boolean checkFakeClock() {
+        int rate = 1000;
+        int seconds = 10;
+        int steps = seconds * rate * 10;
+        long step = TimeUnit.SECONDS.toNanos(1) / (rate * 10);
+        boolean ok = true;
+        for (String name : new String[]{"token bucket", "leaky bucket", "fixed window", "sliding log", "sliding counter"}) {
+            long[] clock = {TimeUnit.DAYS.toNanos(3)};
+            LongSupplier ticker = () -> clock[0];
+            RateLimitter limiter;
+            long expected;
+            switch (name) {
+                case "token bucket":
+                    limiter = new TokenBucketLimiter(rate, 50, ticker);
+                    expected = 50 + (long) rate * seconds;
+                    break;
+                case "leaky bucket":
+                    limiter = new LeakyBucketLimiter(rate, 50, ticker);
+                    expected = (long) rate * seconds;
+                    break;
+                case "fixed window":
+                    limiter = new FixedWindowLimiter(rate / 10, 100, TimeUnit.MILLISECONDS, ticker);
+                    expected = (long) rate * seconds;
+                    break;
+                case "sliding log":
+                    limiter = new SlidingWindowLogLimiter(rate / 10, 100, TimeUnit.MILLISECONDS, ticker);
+                    expected = (long) rate * seconds;
+                    break;
+                default:
+                    limiter = new SlidingWindowCounterLimiter(rate / 10, 100, TimeUnit.MILLISECONDS, ticker);
+                    expected = (long) rate * seconds;
+                    break;
+            }
+            long admitted = 0;
+            // Admissions per sliding 100 ms, the bound every windowed algorithm promises (the fixed window only per window)
+            long[] admittedAt = new long[steps];
+            long maxInWindow = 0;
+            int windowStart = 0;
+            for (int i = 0; i < steps; i++) {
+                if (limiter.tryAcquire()) {
+                    admittedAt[(int) admitted++] = clock[0];
+                    while (clock[0] - admittedAt[windowStart] >= TimeUnit.MILLISECONDS.toNanos(100)) {
+                        windowStart++;
+                    }
+                    maxInWindow = Math.max(maxInWindow, admitted - windowStart);
+                }
+                clock[0] += step;
+            }
+            double error = (double) (admitted - expected) / expected * 100;
+            boolean accurate = Math.abs(error) <= 1.0;
+            if (name.equals("sliding log")) {
+                accurate &= maxInWindow <= rate / 10;
+            }
+            ok &= accurate;
+            System.out.println(String.format("Fake clock | %-15s | offered %,d over %ds | admitted %,d expected %,d (%+.2f%%) | max in any 100ms %d | %s",
+                    name, steps, seconds, admitted, expected, error, maxInWindow, accurate ? "ok" : "FAIL"));
+        }
+        LeakyBucketLimiter queue = new LeakyBucketLimiter(rate, 3, () -> 0L);
+        long[] waits = {queue.reserve(1), queue.reserve(1), queue.reserve(1), queue.reserve(1), queue.reserve(1)};
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        boolean queueOk = waits[0] == 0 && waits[1] == interval && waits[3] == 3 * interval && waits[4] == -1;
+        System.out.println("Leaky bucket queue | capacity 3 | waits of 5 reservations at once: " + Arrays.toString(waits)
+                + " | " + (queueOk ? "ok" : "FAIL"));
+        return ok && queueOk;
+    }
+
+    /**
+     * Threads call tryAcquire as fast as they can for two seconds; the admitted permits must match
+     * the configured rate within 1%. Buckets get 10 ms of burst so a descheduled moment doesn't
+     * cost permits, and the leaky bucket is used through reserve, counting requests due to leave
+     * within the two seconds.
+     */
+    private static boolean checkRealClock() throws InterruptedException {
+        int threads = 4;
+        int rate = 100_000;
+        long nanos = TimeUnit.SECONDS.toNanos(2);
+        boolean ok = true;
+        List<RateLimitter> limiters = new ArrayList<>();
+        limiters.add(tokenBucket(rate, rate / 100));
+        limiters.add(leakyBucket(rate, rate / 100));
+        limiters.add(fixedWindow(rate / 100, 10, TimeUnit.MILLISECONDS));
+        limiters.add(slidingWindowLog(rate / 100, 10, TimeUnit.MILLISECONDS));
+        limiters.add(slidingWindowCounter(rate / 100, 10, TimeUnit.MILLISECONDS));
+        for (RateLimitter limiter : limiters) {
+            long[] admitted = new long[threads];
+            long[] calls = new long[threads];
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            long[] begin = new long[1];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long n = 0;
+                    long a = 0;
+                    long now;
+                    while ((now = System.nanoTime()) - begin[0] < nanos) {
+                        n++;
+                        if (limiter instanceof LeakyBucketLimiter) {
+                            long wait = ((LeakyBucketLimiter) limiter).reserve(1);
+                            if (wait >= 0 && now + wait - begin[0] < nanos) {
+                                a++;
+                            }
+                        } else if (limiter.tryAcquire()) {
+                            a++;
+                        }
+                    }
+                    calls[thread] = n;
+                    admitted[thread] = a;
+                }));
+            }
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            begin[0] = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long total = 0;
+            long offered = 0;
+            for (int t = 0; t < threads; t++) {
+                total += admitted[t];
+                offered += calls[t];
+            }
+            long expected = rate * nanos / TimeUnit.SECONDS.toNanos(1);
+            double error = (double) (total - expected) / expected * 100;
+            boolean accurate = Math.abs(error) <= 1.0;
+            ok &= accurate;
+            System.out.println(String.format("Real clock | %-27s | threads: %d | calls %,d | admitted %,d expected %,d (%+.2f%%) | %s",
+                    limiter.getClass().getSimpleName(), threads, offered, total, expected, error, accurate ? "ok" : "FAIL"));
+        }
+        return ok;
+    }
 }
@@ -0,0 +1,253 @@
+package multithreaded;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Topic backed by one shared append-only ring. A publish claims a sequence number and writes a
+ * single slot no matter how many subscribers there are; every {@link RingSubscriber} just keeps its
+ * own read cursor into the ring.
+ * <p>
+ * The ring never waits for readers: a subscriber that falls more than {@link #capacity()} messages
+ * behind is overrun, skips ahead to the oldest retained message and counts what it missed.
+ */
+class RingTopic {
+
+    private static final long WRITING = Long.MIN_VALUE;
+
+    // Returned by read(long) when the requested slot was reused, compared by identity only
+    static final String OVERRUN = new String("OVERRUN");
+
+    @Getter
+    private final String name;
+
+    private final AtomicReferenceArray<String> messages;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong writeSequence;
+    private final WaitStrategy waitStrategy;
+    private final List<RingSubscriber> subscribers;
+
+    public RingTopic(String name, int capacity) {
+        this(name, capacity, WaitStrategy.PARK);
+    }
+
+    public RingTopic(String name, int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.name = name;
+        messages = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            // Nothing published yet: every slot looks like it belongs to the lap before sequence 0
+            sequences.set(i, i - size);
+        }
+        mask = size - 1;
+        writeSequence = new AtomicLong();
+        this.waitStrategy = waitStrategy;
+        subscribers = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Publishers a lap apart map to the same slot, so the later one waits until the earlier one
+     * has published before it takes the slot over.
+     */
+    public long publish(String msg) {
+        long sequence = writeSequence.getAndIncrement();
+        int idx = (int) sequence & mask;
+        long previousLap = sequence - capacity();
+        int attempt = 0;
+        while (!sequences.compareAndSet(idx, previousLap, WRITING)) {
+            waitStrategy.idle(attempt++);
+        }
+        messages.set(idx, msg);
+        sequences.set(idx, sequence);
+        return sequence;
+    }
+
+    /**
+     * New subscribers start at the next message to be published.
+     */
+    public RingSubscriber subscribe() {
+        RingSubscriber subscriber = new RingSubscriber(this, writeSequence.get());
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public void unsubscribe(RingSubscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Subscribers whose unread backlog exceeds the given number of messages.
+     */
+    public List<RingSubscriber> laggingSubscribers(long maxLag) {
+        List<RingSubscriber> lagging = new ArrayList<>();
+        for (RingSubscriber subscriber : subscribers) {
+            if (subscriber.lag() > maxLag) {
+                lagging.add(subscriber);
+            }
+        }
+        return lagging;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    long writeSequence() {
+        return writeSequence.get();
+    }
+
+    WaitStrategy waitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Reads the message at the given sequence: returns it, null if it isn't published yet, or
+     * {@link #OVERRUN} if the slot has already been reused for a later lap.
+     */
+    String read(long sequence) {
+        int idx = (int) sequence & mask;
+        long before = sequences.get(idx);
+        if (before == WRITING) {
+            return sequence < writeSequence.get() - capacity() ? OVERRUN : null;
+        }
+        if (before < sequence) {
+            return null;
+        }
+        if (before > sequence) {
+            return OVERRUN;
+        }
+        String msg = messages.get(idx);
+        return sequences.get(idx) == sequence ? msg : OVERRUN;
+    }
+}
+
+/**
+ * Read cursor into a {@link RingTopic}. Each instance is meant to be drained by a single thread.
+ */
+class RingSubscriber {
+
+    private final RingTopic topic;
+    private volatile long cursor;
+
+    @Getter
+    private volatile long missed;
+
+    RingSubscriber(RingTopic topic, long cursor) {
+        this.topic = topic;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Returns the next message, or null if the subscriber is caught up.
+     */
+    public String poll() {
+        while (true) {
+            String msg = topic.read(cursor);
+            if (msg == null) {
+                return null;
+            }
+            if (msg != RingTopic.OVERRUN) {
+                cursor++;
+                return msg;
+            }
+            long oldest = Math.max(cursor + 1, topic.writeSequence() - topic.capacity() + 1);
+            missed += oldest - cursor;
+            cursor = oldest;
+        }
+    }
+
+    public String read() throws InterruptedException {
+        int attempt = 0;
+        String msg;
+        while ((msg = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            topic.waitStrategy().idle(attempt++);
+        }
+        return msg;
+    }
+
+    public long lag() {
+        return topic.writeSequence() - cursor;
+    }
+
+    public String getTopicName() {
+        return topic.getName();
+    }
+}
+
+public class RingPubSub {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        // Setting up ring backed topics, subscribers only hold a cursor into each topic's ring
+        PubSubQueueSystem pubSubQueueSystem = new PubSubQueueSystem();
+        pubSubQueueSystem.addRingTopic("news", 8);
+        pubSubQueueSystem.addRingTopic("sports", 1024);
+        RingSubscriber newsSubscriber1 = pubSubQueueSystem.subscribeRing("news");
+        RingSubscriber slowNewsSubscriber = pubSubQueueSystem.subscribeRing("news");
+        RingSubscriber sportsSubscriber1 = pubSubQueueSystem.subscribeRing("sports");
+
+        ExecutorService consumers = Executors.newFixedThreadPool(3);
+        consumers.submit(() -> {
+            while (true) {
+                String msg = newsSubscriber1.read();
+                System.out.println("News consumer: 1 | Message: " + msg);
+            }
+        });
+        consumers.submit(() -> {
+            while (true) {
+                String msg = slowNewsSubscriber.read();
+                System.out.println("Slow news consumer: 2 | Message: " + msg + " | Missed so far: " + slowNewsSubscriber.getMissed());
+                Thread.sleep(3000);
+            }
+        });
+        consumers.submit(() -> {
+            while (true) {
+                String msg = sportsSubscriber1.read();
+                System.out.println("Sports consumer: 3 | Message: " + msg);
+            }
+        });
+
+        ExecutorService publishers = Executors.newFixedThreadPool(2);
+        publishers.submit(() -> {
+            while (true) {
+                int num = new Random().nextInt(100);
+                pubSubQueueSystem.publish("news", String.valueOf(num));
+                Thread.sleep(200);
+            }
+        });
+        publishers.submit(() -> {
+            while (true) {
+                int num = new Random().nextInt(1000);
+                pubSubQueueSystem.publish("sports", String.valueOf(num));
+                Thread.sleep(1000);
+            }
+        });
+
+        while (true) {
+            Thread.sleep(2000);
+            for (RingSubscriber lagging : pubSubQueueSystem.getRingTopic("news").laggingSubscribers(4)) {
+                System.out.println("Lagging subscriber on " + lagging.getTopicName() + " | lag: " + lagging.lag());
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package multithreaded;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and latency distributions of one {@link JobSchedulerManager}. Recording is a handful of
+ * atomic adds into preallocated counters and {@link LatencyHistogram}s, so it never allocates or
+ * locks and is meant to stay on. Cluster utilization is not recorded at all, it is read from the
+ * clusters' free capacity when a snapshot is taken.
+ */
+class SchedulerMetrics {
+
+    private final ClusterManager clusterManager;
+    private final AtomicLong queueDepth;
+    private final AtomicLong maxQueueDepth;
+    private final LongAdder submitted;
+    private final LongAdder dispatched;
+    private final LongAdder completed;
+    private final LatencyHistogram waitTime;
+    private final LatencyHistogram runTime;
+
+    // Guarded by this
+    private ScheduledExecutorService dumper;
+
+    public SchedulerMetrics(ClusterManager clusterManager) {
+        this.clusterManager = clusterManager;
+        queueDepth = new AtomicLong();
+        maxQueueDepth = new AtomicLong();
+        submitted = new LongAdder();
+        dispatched = new LongAdder();
+        completed = new LongAdder();
+        waitTime = new LatencyHistogram();
+        runTime = new LatencyHistogram();
+    }
+
+    void jobSubmitted() {
+        submitted.increment();
+        long depth = queueDepth.incrementAndGet();
+        long max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    void jobDispatched(long waitNanos) {
+        queueDepth.decrementAndGet();
+        dispatched.increment();
+        waitTime.record(waitNanos);
+    }
+
+    void jobCompleted(long runNanos) {
+        completed.increment();
+        runTime.record(runNanos);
+    }
+
+    public MetricsSnapshot snapshot() {
+        List<ClusterUtilization> clusters = new ArrayList<>();
+        for (Cluster cluster : clusterManager.getClusters()) {
+            clusters.add(new ClusterUtilization(cluster));
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), queueDepth.get(), maxQueueDepth.get(),
+                submitted.sum(), dispatched.sum(), completed.sum(),
+                new HistogramSummary(waitTime), new HistogramSummary(runTime), clusters);
+    }
+
+    /**
+     * Writes a snapshot to the file every period. The file is replaced atomically, readers always
+     * see one complete snapshot.
+     */
+    public synchronized void startDump(Path file, long period, TimeUnit unit) {
+        if (Objects.nonNull(dumper)) {
+            throw new IllegalStateException("Metrics dump already running");
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scheduler-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (UncheckedIOException e) {
+                System.out.println("Metrics dump to " + file + " failed | " + e.getCause());
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stopDump() {
+        if (Objects.nonNull(dumper)) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+
+    public void dump(Path file) {
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, snapshot().format().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+/**
+ * Percentiles of a {@link LatencyHistogram} at one point in time, in nanoseconds.
+ */
+@Getter
+class HistogramSummary {
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    HistogramSummary(LatencyHistogram histogram) {
+        count = histogram.count();
+        mean = histogram.mean();
+        p50 = histogram.percentile(50);
+        p90 = histogram.percentile(90);
+        p99 = histogram.percentile(99);
+        p999 = histogram.percentile(99.9);
+        max = histogram.max();
+    }
+}
+
+@Getter
+class ClusterUtilization {
+    private final int clusterId;
+    private final int usedRam;
+    private final int totalRam;
+    private final int usedCpu;
+    private final int totalCpu;
+
+    ClusterUtilization(Cluster cluster) {
+        clusterId = cluster.getId();
+        totalRam = cluster.getTotalRam();
+        totalCpu = cluster.getTotalCpu();
+        usedRam = totalRam - cluster.getFreeRam();
+        usedCpu = totalCpu - cluster.getFreeCpu();
+    }
+
+    public double getRamUtilization() {
+        return totalRam == 0 ? 0 : (double) usedRam / totalRam;
+    }
+
+    public double getCpuUtilization() {
+        return totalCpu == 0 ? 0 : (double) usedCpu / totalCpu;
+    }
+}
+
+/**
+ * Immutable view of {@link SchedulerMetrics}; {@link #format()} renders it as one
+ * {@code name{labels} value} line per metric.
+ */
+@Getter
+class MetricsSnapshot {
+    private final long timestamp;
+    private final long queueDepth;
+    private final long maxQueueDepth;
+    private final long submitted;
+    private final long dispatched;
+    private final long completed;
+    private final HistogramSummary waitTime;
+    private final HistogramSummary runTime;
+    private final List<ClusterUtilization> clusters;
+
+    MetricsSnapshot(long timestamp, long queueDepth, long maxQueueDepth, long submitted, long dispatched, long completed,
+                    HistogramSummary waitTime, HistogramSummary runTime, List<ClusterUtilization> clusters) {
+        this.timestamp = timestamp;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.submitted = submitted;
+        this.dispatched = dispatched;
+        this.completed = completed;
+        this.waitTime = waitTime;
+        this.runTime = runTime;
+        this.clusters = Collections.unmodifiableList(clusters);
+    }
+
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        line(out, "scheduler_snapshot_timestamp_ms", "", timestamp);
+        line(out, "scheduler_queue_depth", "", queueDepth);
+        line(out, "scheduler_queue_depth_max", "", maxQueueDepth);
+        line(out, "scheduler_jobs_submitted_total", "", submitted);
+        line(out, "scheduler_jobs_dispatched_total", "", dispatched);
+        line(out, "scheduler_jobs_completed_total", "", completed);
+        histogram(out, "scheduler_job_wait_ns", waitTime);
+        histogram(out, "scheduler_job_run_ns", runTime);
+        for (ClusterUtilization cluster : clusters) {
+            String labels = "{cluster=\"" + cluster.getClusterId() + "\"}";
+            line(out, "cluster_ram_used", labels, cluster.getUsedRam());
+            line(out, "cluster_ram_total", labels, cluster.getTotalRam());
+            line(out, "cluster_cpu_used", labels, cluster.getUsedCpu());
+            line(out, "cluster_cpu_total", labels, cluster.getTotalCpu());
+        }
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, String name, HistogramSummary summary) {
+        line(out, name + "_count", "", summary.getCount());
+        line(out, name + "_mean", "", (long) summary.getMean());
+        line(out, name, "{quantile=\"0.5\"}", summary.getP50());
+        line(out, name, "{quantile=\"0.9\"}", summary.getP90());
+        line(out, name, "{quantile=\"0.99\"}", summary.getP99());
+        line(out, name, "{quantile=\"0.999\"}", summary.getP999());
+        line(out, name + "_max", "", summary.getMax());
+    }
+
+    private static void line(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+}
+
+/**
+ * Runs the scheduler under load with the metrics dump enabled, prints a few snapshots and the cost
+ * of recording into the histograms from several threads.
+ */
+public class SchedulerMonitoring {
+
+    public static void main(String[] args) throws Exception {
+        Path file = args.length > 0 ? Paths.get(args[0]) : Files.createTempFile("scheduler-metrics", ".prom");
+
+        JobSchedulerManager jobSchedulerManager = new JobSchedulerManager();
+        jobSchedulerManager.addCluster(new Cluster(1, 32, 8));
+        jobSchedulerManager.addCluster(new Cluster(2, 32, 8));
+        jobSchedulerManager.addCluster(new Cluster(3, 64, 8));
+        SchedulerMetrics metrics = jobSchedulerManager.getMetrics();
+        metrics.startDump(file, 500, TimeUnit.MILLISECONDS);
+        jobSchedulerManager.startClusters();
+
+        Random random = new Random(42);
+        for (int jobId = 1; jobId <= 200; jobId++) {
+            jobSchedulerManager.submitJob(new Job(jobId, random.nextInt(30) + 1, random.nextInt(6) + 1,
+                    20L + random.nextInt(80), random.nextInt(5)));
+        }
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(1000);
+            MetricsSnapshot snapshot = metrics.snapshot();
+            StringBuilder utilization = new StringBuilder();
+            for (ClusterUtilization cluster : snapshot.getClusters()) {
+                utilization.append(String.format(" cluster %d ram=%.0f%% cpu=%.0f%%", cluster.getClusterId(),
+                        100 * cluster.getRamUtilization(), 100 * cluster.getCpuUtilization()));
+            }
+            System.out.println("Queue depth: " + snapshot.getQueueDepth() + " | completed: " + snapshot.getCompleted()
+                    + " | wait p99(ms): " + TimeUnit.NANOSECONDS.toMillis(snapshot.getWaitTime().getP99())
+                    + " | run p50(ms): " + TimeUnit.NANOSECONDS.toMillis(snapshot.getRunTime().getP50()) + " |" + utilization);
+        }
+        metrics.stopDump();
+        jobSchedulerManager.shutdown();
+        System.out.println("Last dump in " + file + ":");
+        System.out.print(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+        // Recording overhead: every thread records into the same registry
+        int threads = Runtime.getRuntime().availableProcessors();
+        int recordsPerThread = 2_000_000;
+        SchedulerMetrics overhead = new SchedulerMetrics(new ClusterManager());
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; i++) {
+                    overhead.jobSubmitted();
+                    overhead.jobDispatched(i);
+                    overhead.jobCompleted(i);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("Recording overhead | threads: %d | %.1f ns per job (submit + dispatch + complete)",
+                threads, (double) elapsed * threads / ((long) threads * recordsPerThread)));
+    }
+}
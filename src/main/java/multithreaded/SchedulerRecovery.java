@@ -0,0 +1,982 @@
+package multithreaded;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Queued, running and waiting jobs as described by the journal: what a recovering scheduler has to
+ * put back into its queue, its clusters' reservations and its DAG edges. A job of a {@link JobDag}
+ * waits until the completion of its last pending parent moves it to the queue.
+ */
+class JournalState {
+
+    @Getter
+    static final class Submission {
+        private final Job job;
+        private final long submittedAt;
+
+        Submission(Job job, long submittedAt) {
+            this.job = job;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    @Getter
+    static final class Placement {
+        private final Submission submission;
+        // One cluster, or the cluster of every part of a gang in part order
+        private final List<Integer> clusterIds;
+        private final long placedAt;
+
+        Placement(Submission submission, List<Integer> clusterIds, long placedAt) {
+            this.submission = submission;
+            this.clusterIds = clusterIds;
+            this.placedAt = placedAt;
+        }
+
+        boolean isGang() {
+            return clusterIds.size() > 1;
+        }
+    }
+
+    @Getter
+    static final class Waiting {
+        private final Submission submission;
+        // Ids of the parents that have not completed yet
+        private final Set<Integer> parents;
+
+        Waiting(Submission submission, Set<Integer> parents) {
+            this.submission = submission;
+            this.parents = parents;
+        }
+    }
+
+    private final Map<Integer, Submission> queued;
+    private final Map<Integer, Placement> running;
+    private final Map<Integer, Waiting> waiting;
+    // Parent id to the ids of the waiting jobs it releases
+    private final Map<Integer, List<Integer>> children;
+
+    JournalState() {
+        queued = new LinkedHashMap<>();
+        running = new LinkedHashMap<>();
+        waiting = new LinkedHashMap<>();
+        children = new HashMap<>();
+    }
+
+    JournalState(JournalState other) {
+        queued = new LinkedHashMap<>(other.queued);
+        running = new LinkedHashMap<>(other.running);
+        waiting = new LinkedHashMap<>();
+        other.waiting.forEach((id, w) -> waiting.put(id, new Waiting(w.submission, new LinkedHashSet<>(w.parents))));
+        children = new HashMap<>();
+        other.children.forEach((id, ids) -> children.put(id, new ArrayList<>(ids)));
+    }
+
+    void submitted(Job job, long submittedAt) {
+        queued.put(job.getId(), new Submission(job, submittedAt));
+    }
+
+    void waiting(Job job, long submittedAt, Collection<Integer> parents) {
+        waiting.put(job.getId(), new Waiting(new Submission(job, submittedAt), new LinkedHashSet<>(parents)));
+        for (int parent : parents) {
+            children.computeIfAbsent(parent, id -> new ArrayList<>()).add(job.getId());
+        }
+    }
+
+    void placed(int jobId, List<Integer> clusterIds, long placedAt) {
+        Submission submission = queued.remove(jobId);
+        if (Objects.nonNull(submission)) {
+            running.put(jobId, new Placement(submission, clusterIds, placedAt));
+        }
+    }
+
+    void completed(int jobId) {
+        // Logs written before gang placements were journaled complete gangs that are still queued
+        queued.remove(jobId);
+        running.remove(jobId);
+        List<Integer> released = children.remove(jobId);
+        if (Objects.isNull(released)) {
+            return;
+        }
+        for (int child : released) {
+            Waiting w = waiting.get(child);
+            if (Objects.nonNull(w) && w.parents.remove(jobId) && w.parents.isEmpty()) {
+                waiting.remove(child);
+                queued.put(child, w.submission);
+            }
+        }
+    }
+
+    public Collection<Submission> getQueued() {
+        return queued.values();
+    }
+
+    public Collection<Placement> getRunning() {
+        return running.values();
+    }
+
+    public Collection<Waiting> getWaiting() {
+        return waiting.values();
+    }
+}
+
+/**
+ * Write-ahead log of scheduler events (submit, DAG submit, place, gang place, complete) with
+ * group commit and periodic snapshots, stored under one directory:
+ * <ul>
+ * <li>{@code <first lsn>.wal} log files, each record is {@code [length][crc32][payload]}. A torn or
+ * corrupt record ends the file on replay.</li>
+ * <li>{@code <last lsn>.snapshot}, the complete {@link JournalState} up to and including that log
+ * sequence number, written to a temp file and moved into place.</li>
+ * </ul>
+ * Appending only encodes into a buffer; one writer thread flushes whatever has accumulated with a
+ * single write and fsync, so concurrent callers of {@link #awaitDurable(long)} share the cost of
+ * the sync. Every {@code snapshotEvery} events the writer snapshots the state, starts a new log file
+ * and deletes the files the snapshot covers, which bounds recovery to one snapshot plus at most
+ * {@code snapshotEvery} events of log.
+ */
+class SchedulerJournal implements AutoCloseable {
+
+    private static final byte SUBMIT = 1;
+    private static final byte PLACE = 2;
+    private static final byte COMPLETE = 3;
+    private static final byte DAG = 4;
+    private static final byte GANG_PLACE = 5;
+    private static final int RECORD_HEADER = 8;
+    private static final long DEFAULT_SNAPSHOT_EVERY = 100_000;
+
+    @Getter
+    private final Path directory;
+    private final long snapshotEvery;
+    private final ReentrantLock lock;
+    private final Condition pending;
+    private final Condition durable;
+    private final Thread writer;
+
+    // Guarded by lock
+    private JournalState state;
+    private ByteBuffer buffer;
+    private long lastLsn;
+    private long durableLsn;
+    private long snapshotLsn;
+    private boolean closed;
+    private boolean stopped;
+    private IOException failure;
+
+    // Owned by the writer thread
+    private ByteBuffer spare;
+    private FileChannel log;
+
+    @Getter
+    private volatile long flushes;
+
+    @Getter
+    private final long recoveredEvents;
+
+    public static SchedulerJournal open(Path directory) {
+        return new SchedulerJournal(directory, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * Recovers the state from the latest snapshot and the log after it, then starts a new log file.
+     */
+    public SchedulerJournal(Path directory, long snapshotEvery) {
+        if (snapshotEvery <= 0) {
+            throw new IllegalArgumentException("Invalid snapshot interval: " + snapshotEvery);
+        }
+        this.directory = directory;
+        this.snapshotEvery = snapshotEvery;
+        lock = new ReentrantLock();
+        pending = lock.newCondition();
+        durable = lock.newCondition();
+        buffer = ByteBuffer.allocate(64 * 1024);
+        spare = ByteBuffer.allocate(64 * 1024);
+        state = new JournalState();
+        try {
+            Files.createDirectories(directory);
+            recoveredEvents = recover();
+            log = openLog(lastLsn + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        durableLsn = lastLsn;
+        writer = new Thread(this::writeLoop, "scheduler-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long submitted(Job job, long submittedAt) {
+        lock.lock();
+        try {
+            if (closed) {
+                return lastLsn;
+            }
+            state.submitted(job, submittedAt);
+            buffer = writeSubmit(buffer, job, submittedAt);
+            return appended();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs every job of a DAG in one record, so a crash keeps all of it or none. Jobs without
+     * parents are queued, the rest wait for the completion of the parents listed for them.
+     */
+    public long submittedDag(Map<Job, List<Integer>> parents, long submittedAt) {
+        lock.lock();
+        try {
+            if (closed) {
+                return lastLsn;
+            }
+            parents.forEach((job, ids) -> submittedDagJob(state, job, submittedAt, ids));
+            buffer = writeDag(buffer, parents, submittedAt);
+            return appended();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long placed(Job job, int clusterId, long placedAt) {
+        lock.lock();
+        try {
+            if (closed) {
+                return lastLsn;
+            }
+            state.placed(job.getId(), Collections.singletonList(clusterId), placedAt);
+            buffer = writePlace(buffer, job.getId(), clusterId, placedAt);
+            return appended();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs a job split across clusters, with the cluster of every part in part order.
+     */
+    public long placedGang(Job job, List<Integer> clusterIds, long placedAt) {
+        lock.lock();
+        try {
+            if (closed) {
+                return lastLsn;
+            }
+            state.placed(job.getId(), clusterIds, placedAt);
+            buffer = writeGangPlace(buffer, job.getId(), clusterIds, placedAt);
+            return appended();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long completed(Job job) {
+        lock.lock();
+        try {
+            if (closed) {
+                return lastLsn;
+            }
+            state.completed(job.getId());
+            buffer = writeComplete(buffer, job.getId());
+            return appended();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the event with the given log sequence number is on disk.
+     */
+    public void awaitDurable(long lsn) throws InterruptedException {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                if (Objects.nonNull(failure)) {
+                    throw new UncheckedIOException(failure);
+                }
+                if (stopped) {
+                    throw new IllegalStateException("Journal closed before event " + lsn + " was written");
+                }
+                durable.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy of the state at the last appended event; right after opening, the recovered state.
+     */
+    public JournalState state() {
+        lock.lock();
+        try {
+            return new JournalState(state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long lastLsn() {
+        lock.lock();
+        try {
+            return lastLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes what was appended so far and stops the writer. Events appended afterwards are
+     * dropped, as if the process had died.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pending.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Guarded by lock
+    private long appended() {
+        pending.signal();
+        return ++lastLsn;
+    }
+
+    private static void submittedDagJob(JournalState state, Job job, long submittedAt, List<Integer> parents) {
+        if (parents.isEmpty()) {
+            state.submitted(job, submittedAt);
+        } else {
+            state.waiting(job, submittedAt, parents);
+        }
+    }
+
+    private static ByteBuffer writeSubmit(ByteBuffer out, Job job, long submittedAt) {
+        byte[] tenant = tenantBytes(job);
+        out = beginRecord(out, 1 + jobLength(tenant));
+        int start = out.position();
+        out.put(SUBMIT);
+        putJob(out, job, submittedAt, tenant);
+        return endRecord(out, start);
+    }
+
+    // Per job: the job as in a submit, then the number of parents and their ids
+    private static ByteBuffer writeDag(ByteBuffer out, Map<Job, ? extends Collection<Integer>> parents, long submittedAt) {
+        List<byte[]> tenants = new ArrayList<>(parents.size());
+        int length = 1 + 4;
+        for (Map.Entry<Job, ? extends Collection<Integer>> entry : parents.entrySet()) {
+            byte[] tenant = tenantBytes(entry.getKey());
+            tenants.add(tenant);
+            length += jobLength(tenant) + 4 + 4 * entry.getValue().size();
+        }
+        out = beginRecord(out, length);
+        int start = out.position();
+        out.put(DAG).putInt(parents.size());
+        int i = 0;
+        for (Map.Entry<Job, ? extends Collection<Integer>> entry : parents.entrySet()) {
+            putJob(out, entry.getKey(), submittedAt, tenants.get(i++));
+            out.putInt(entry.getValue().size());
+            for (int parent : entry.getValue()) {
+                out.putInt(parent);
+            }
+        }
+        return endRecord(out, start);
+    }
+
+    private static byte[] tenantBytes(Job job) {
+        return Objects.isNull(job.getTenant()) ? null : job.getTenant().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int jobLength(byte[] tenant) {
+        return 4 * 5 + 8 * 4 + (Objects.isNull(tenant) ? 0 : tenant.length);
+    }
+
+    private static void putJob(ByteBuffer out, Job job, long submittedAt, byte[] tenant) {
+        out.putInt(job.getId())
+                .putInt(job.getRam())
+                .putInt(job.getCpu())
+                .putLong(job.getTime())
+                .putInt(job.getPriority())
+                .putLong(Objects.isNull(job.getDeadline()) ? Long.MIN_VALUE : job.getDeadline())
+                .putLong(job.getCriticalPath())
+                .putLong(submittedAt)
+                .putInt(Objects.isNull(tenant) ? -1 : tenant.length);
+        if (Objects.nonNull(tenant)) {
+            out.put(tenant);
+        }
+    }
+
+    private static ByteBuffer writePlace(ByteBuffer out, int jobId, int clusterId, long placedAt) {
+        out = beginRecord(out, 1 + 4 + 4 + 8);
+        int start = out.position();
+        out.put(PLACE).putInt(jobId).putInt(clusterId).putLong(placedAt);
+        return endRecord(out, start);
+    }
+
+    private static ByteBuffer writeGangPlace(ByteBuffer out, int jobId, List<Integer> clusterIds, long placedAt) {
+        out = beginRecord(out, 1 + 4 + 8 + 4 + 4 * clusterIds.size());
+        int start = out.position();
+        out.put(GANG_PLACE).putInt(jobId).putLong(placedAt).putInt(clusterIds.size());
+        for (int clusterId : clusterIds) {
+            out.putInt(clusterId);
+        }
+        return endRecord(out, start);
+    }
+
+    private static ByteBuffer writeComplete(ByteBuffer out, int jobId) {
+        out = beginRecord(out, 1 + 4);
+        int start = out.position();
+        out.put(COMPLETE).putInt(jobId);
+        return endRecord(out, start);
+    }
+
+    // Writes the header with a placeholder checksum, growing the buffer if the record doesn't fit
+    private static ByteBuffer beginRecord(ByteBuffer out, int payloadLength) {
+        if (out.remaining() < RECORD_HEADER + payloadLength) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + RECORD_HEADER + payloadLength));
+            out.flip();
+            bigger.put(out);
+            out = bigger;
+        }
+        return out.putInt(payloadLength).putInt(0);
+    }
+
+    private static ByteBuffer endRecord(ByteBuffer out, int payloadStart) {
+        ByteBuffer payload = out.duplicate();
+        payload.flip().position(payloadStart);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.putInt(payloadStart - 4, (int) crc.getValue());
+        return out;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long batchLsn;
+            JournalState snapshot = null;
+            boolean last;
+            lock.lock();
+            try {
+                while (buffer.position() == 0 && !closed) {
+                    pending.awaitUninterruptibly();
+                }
+                last = closed;
+                batch = buffer;
+                batchLsn = lastLsn;
+                spare.clear();
+                buffer = spare;
+                if (batchLsn - snapshotLsn >= snapshotEvery) {
+                    snapshot = new JournalState(state);
+                    snapshotLsn = batchLsn;
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    log.write(batch);
+                }
+                log.force(false);
+                flushes++;
+                if (Objects.nonNull(snapshot)) {
+                    log.close();
+                    log = openLog(batchLsn + 1);
+                    writeSnapshot(snapshot, batchLsn);
+                    deleteCoveredFiles(batchLsn);
+                }
+                if (last) {
+                    log.close();
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    closed = true;
+                    stopped = true;
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                spare = batch;
+                durableLsn = batchLsn;
+                stopped = last;
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    private FileChannel openLog(long firstLsn) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("%020d.wal", firstLsn)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeSnapshot(JournalState snapshot, long lsn) throws IOException {
+        Path tmp = directory.resolve("snapshot.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // A snapshot is just the events that rebuild the state: a submit per queued job and
+            // a submit plus a place per running job
+            ByteBuffer records = ByteBuffer.allocate(1024 * 1024);
+            for (JournalState.Submission submission : snapshot.getQueued()) {
+                records = writeSubmit(records, submission.getJob(), submission.getSubmittedAt());
+                records = drainIfFull(records, out);
+            }
+            for (JournalState.Placement placement : snapshot.getRunning()) {
+                Job job = placement.getSubmission().getJob();
+                records = writeSubmit(records, job, placement.getSubmission().getSubmittedAt());
+                records = placement.isGang()
+                        ? writeGangPlace(records, job.getId(), placement.getClusterIds(), placement.getPlacedAt())
+                        : writePlace(records, job.getId(), placement.getClusterIds().get(0), placement.getPlacedAt());
+                records = drainIfFull(records, out);
+            }
+            // and a one job DAG per waiting job
+            for (JournalState.Waiting waiting : snapshot.getWaiting()) {
+                JournalState.Submission submission = waiting.getSubmission();
+                records = writeDag(records, Collections.singletonMap(submission.getJob(), waiting.getParents()), submission.getSubmittedAt());
+                records = drainIfFull(records, out);
+            }
+            records.flip();
+            while (records.hasRemaining()) {
+                out.write(records);
+            }
+            out.force(false);
+        }
+        Files.move(tmp, directory.resolve(String.format("%020d.snapshot", lsn)),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer drainIfFull(ByteBuffer records, FileChannel out) throws IOException {
+        if (records.position() > records.capacity() / 2) {
+            records.flip();
+            while (records.hasRemaining()) {
+                out.write(records);
+            }
+            records.clear();
+        }
+        return records;
+    }
+
+    private void deleteCoveredFiles(long snapshotLsn) throws IOException {
+        for (File file : files(".snapshot")) {
+            if (lsnOf(file) < snapshotLsn) {
+                Files.delete(file.toPath());
+            }
+        }
+        for (File file : files(".wal")) {
+            if (lsnOf(file) <= snapshotLsn) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    private long recover() throws IOException {
+        long events = 0;
+        File[] snapshots = files(".snapshot");
+        if (snapshots.length > 0) {
+            File latest = snapshots[snapshots.length - 1];
+            replay(latest.toPath(), 0, -1);
+            lastLsn = lsnOf(latest);
+            snapshotLsn = lastLsn;
+        }
+        for (File file : files(".wal")) {
+            long firstLsn = lsnOf(file);
+            if (firstLsn > lastLsn + 1) {
+                throw new IllegalStateException("Journal is missing events " + (lastLsn + 1) + " to " + (firstLsn - 1));
+            }
+            long records = replay(file.toPath(), firstLsn, lastLsn);
+            long fileLastLsn = firstLsn + records - 1;
+            events += Math.max(0, fileLastLsn - Math.max(lastLsn, firstLsn - 1));
+            lastLsn = Math.max(lastLsn, fileLastLsn);
+        }
+        return events;
+    }
+
+    /**
+     * Applies the records of one file whose lsn is above skipUpTo, the first record has lsn
+     * firstLsn. Returns the number of intact records in the file.
+     */
+    private long replay(Path file, long firstLsn, long skipUpTo) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        long records = 0;
+        ByteBuffer payload;
+        while ((payload = nextRecord(in)) != null) {
+            if (firstLsn + records > skipUpTo) {
+                apply(payload);
+            }
+            records++;
+        }
+        return records;
+    }
+
+    // The payload of the next intact record, or null at the end of the file or at a torn record
+    private static ByteBuffer nextRecord(ByteBuffer in) {
+        if (in.remaining() < RECORD_HEADER) {
+            return null;
+        }
+        int length = in.getInt(in.position());
+        int checksum = in.getInt(in.position() + 4);
+        if (length <= 0 || in.remaining() - RECORD_HEADER < length) {
+            return null;
+        }
+        ByteBuffer payload = in.duplicate();
+        payload.position(in.position() + RECORD_HEADER).limit(in.position() + RECORD_HEADER + length);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        in.position(in.position() + RECORD_HEADER + length);
+        return payload;
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        if (type == SUBMIT) {
+            long[] submittedAt = new long[1];
+            Job job = readJob(payload, submittedAt);
+            state.submitted(job, submittedAt[0]);
+        } else if (type == DAG) {
+            int jobs = payload.getInt();
+            long[] submittedAt = new long[1];
+            for (int i = 0; i < jobs; i++) {
+                Job job = readJob(payload, submittedAt);
+                List<Integer> parents = new ArrayList<>();
+                for (int n = payload.getInt(); n > 0; n--) {
+                    parents.add(payload.getInt());
+                }
+                submittedDagJob(state, job, submittedAt[0], parents);
+            }
+        } else if (type == PLACE) {
+            state.placed(payload.getInt(), Collections.singletonList(payload.getInt()), payload.getLong());
+        } else if (type == GANG_PLACE) {
+            int jobId = payload.getInt();
+            long placedAt = payload.getLong();
+            List<Integer> clusterIds = new ArrayList<>();
+            for (int n = payload.getInt(); n > 0; n--) {
+                clusterIds.add(payload.getInt());
+            }
+            state.placed(jobId, clusterIds, placedAt);
+        } else if (type == COMPLETE) {
+            state.completed(payload.getInt());
+        } else {
+            throw new IllegalStateException("Unknown journal record type: " + type);
+        }
+    }
+
+    private static Job readJob(ByteBuffer payload, long[] submittedAt) {
+        Job job = new Job(payload.getInt(), payload.getInt(), payload.getInt(), payload.getLong(), payload.getInt());
+        long deadline = payload.getLong();
+        job.setDeadline(deadline == Long.MIN_VALUE ? null : deadline);
+        job.setCriticalPath(payload.getLong());
+        submittedAt[0] = payload.getLong();
+        int tenantLength = payload.getInt();
+        if (tenantLength >= 0) {
+            byte[] tenant = new byte[tenantLength];
+            payload.get(tenant);
+            job.setTenant(new String(tenant, StandardCharsets.UTF_8));
+        }
+        return job;
+    }
+
+    private File[] files(String suffix) {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(suffix));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long lsnOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+}
+
+/**
+ * Kills a journaled scheduler mid-run and rebuilds its queue and cluster reservations from the
+ * journal, then measures how long recovering a 1M event log takes with and without snapshots.
+ */
+public class SchedulerRecovery {
+
+    public static void main(String[] args) throws Exception {
+        Path dir = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("scheduler-journal");
+        System.out.println("Journal directory: " + dir);
+        crashAndRecover(dir.resolve("crash"));
+        dagCrashAndRecover(dir.resolve("dag-crash"));
+        gangCrashAndRecover(dir.resolve("gang-crash"));
+        recoveryTime(dir.resolve("no-snapshots"), Long.MAX_VALUE);
+        recoveryTime(dir.resolve("snapshots"), 100_000);
+    }
+
+    private static void crashAndRecover(Path dir) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        JournalState beforeCrash;
+        try {
+            SchedulerJournal journal = SchedulerJournal.open(dir);
+            JobSchedulerManager jobSchedulerManager = new JobSchedulerManager();
+            for (Cluster cluster : clusters()) {
+                jobSchedulerManager.addCluster(cluster);
+            }
+            jobSchedulerManager.recover(journal);
+            jobSchedulerManager.startClusters();
+            Random random = new Random(42);
+            for (int jobId = 1; jobId <= 50; jobId++) {
+                jobSchedulerManager.submitJob(new Job(jobId, random.nextInt(30) + 1, random.nextInt(6) + 1,
+                        1000L + random.nextInt(4000), random.nextInt(5)));
+            }
+            Thread.sleep(1500);
+            // Pulling the plug: nothing is logged from here on
+            journal.close();
+            beforeCrash = journal.state();
+            jobSchedulerManager.shutdown();
+        } finally {
+            System.setOut(out);
+        }
+        System.out.println("Before crash | queued: " + beforeCrash.getQueued().size() + " | running: " + beforeCrash.getRunning().size());
+
+        SchedulerJournal journal = SchedulerJournal.open(dir);
+        JobSchedulerManager restarted = new JobSchedulerManager();
+        List<Cluster> clusters = clusters();
+        for (Cluster cluster : clusters) {
+            restarted.addCluster(cluster);
+        }
+        restarted.recover(journal);
+        JournalState recovered = journal.state();
+        StringBuilder reservations = new StringBuilder();
+        for (Cluster cluster : clusters) {
+            reservations.append(String.format(" cluster %d ram=%d/%d cpu=%d/%d", cluster.getId(),
+                    cluster.getTotalRam() - cluster.getFreeRam(), cluster.getTotalRam(),
+                    cluster.getTotalCpu() - cluster.getFreeCpu(), cluster.getTotalCpu()));
+        }
+        System.out.println("After restart | queued: " + recovered.getQueued().size() + " | running: " + recovered.getRunning().size()
+                + " | reserved:" + reservations);
+        restarted.startClusters();
+        restarted.shutdown();
+        journal.close();
+    }
+
+    /**
+     * A chain a -> b -> c is cut by a crash while a is running; the restarted scheduler must still
+     * run b after a and c after b.
+     */
+    private static void dagCrashAndRecover(Path dir) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        JournalState recovered;
+        List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        JournalState after;
+        try {
+            SchedulerJournal journal = SchedulerJournal.open(dir);
+            JobSchedulerManager jobSchedulerManager = new JobSchedulerManager();
+            for (Cluster cluster : clusters()) {
+                jobSchedulerManager.addCluster(cluster);
+            }
+            jobSchedulerManager.recover(journal);
+            jobSchedulerManager.startClusters();
+            Job a = new Job(1, 8, 2, 1000L, 2);
+            Job b = new Job(2, 8, 2, 100L, 2);
+            Job c = new Job(3, 8, 2, 100L, 2);
+            jobSchedulerManager.submitDag(new JobDag().dependsOn(b, a).dependsOn(c, b));
+            Thread.sleep(300);
+            journal.close();
+            jobSchedulerManager.shutdown();
+
+            SchedulerJournal reopened = SchedulerJournal.open(dir);
+            recovered = reopened.state();
+            JobSchedulerManager restarted = new JobSchedulerManager();
+            for (Cluster cluster : clusters()) {
+                restarted.addCluster(cluster);
+            }
+            restarted.getClusterManager().addReleaseListener(job -> completed.add(job.getId()));
+            restarted.recover(reopened);
+            restarted.startClusters();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (completed.size() < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            after = reopened.state();
+            restarted.shutdown();
+            reopened.close();
+        } finally {
+            System.setOut(out);
+        }
+        boolean ok = recovered.getRunning().size() == 1 && recovered.getWaiting().size() == 2
+                && completed.equals(Arrays.asList(1, 2, 3))
+                && after.getQueued().isEmpty() && after.getRunning().isEmpty() && after.getWaiting().isEmpty();
+        System.out.println("DAG after restart | running: " + recovered.getRunning().size() + " | waiting: " + recovered.getWaiting().size()
+                + " | completed in order: " + completed + " | " + (ok ? "PASS" : "FAIL"));
+    }
+
+    /**
+     * A job split across clusters is cut by a crash while running; the restarted scheduler must
+     * hold every part's reservation, finish the job once and not bring it back on the next restart.
+     */
+    private static void gangCrashAndRecover(Path dir) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        JournalState recovered;
+        int reservedRam = 0;
+        AtomicInteger partsReleased = new AtomicInteger();
+        boolean clustersFree = true;
+        JournalState afterSecondRestart;
+        try {
+            SchedulerJournal journal = SchedulerJournal.open(dir);
+            JobSchedulerManager jobSchedulerManager = new JobSchedulerManager();
+            for (Cluster cluster : clusters()) {
+                jobSchedulerManager.addCluster(cluster);
+            }
+            jobSchedulerManager.recover(journal);
+            jobSchedulerManager.startClusters();
+            // More RAM than any one cluster has, fits as three parts of 30
+            Job job = new Job(1, 90, 6, 1000L, 2);
+            job.setMaxParts(3);
+            jobSchedulerManager.submitJob(job);
+            Thread.sleep(300);
+            journal.close();
+            jobSchedulerManager.shutdown();
+
+            SchedulerJournal reopened = SchedulerJournal.open(dir);
+            recovered = reopened.state();
+            JobSchedulerManager restarted = new JobSchedulerManager();
+            List<Cluster> clusters = clusters();
+            for (Cluster cluster : clusters) {
+                restarted.addCluster(cluster);
+            }
+            restarted.getClusterManager().addReleaseListener(part -> partsReleased.incrementAndGet());
+            restarted.recover(reopened);
+            for (Cluster cluster : clusters) {
+                reservedRam += cluster.getTotalRam() - cluster.getFreeRam();
+            }
+            restarted.startClusters();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!reopened.state().getRunning().isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            restarted.shutdown();
+            restarted.awaitTermination(5, TimeUnit.SECONDS);
+            for (Cluster cluster : clusters) {
+                clustersFree &= cluster.getFreeRam() == cluster.getTotalRam() && cluster.getFreeCpu() == cluster.getTotalCpu();
+            }
+            reopened.close();
+
+            SchedulerJournal again = SchedulerJournal.open(dir);
+            afterSecondRestart = again.state();
+            again.close();
+        } finally {
+            System.setOut(out);
+        }
+        List<Integer> clusterIds = recovered.getRunning().isEmpty()
+                ? Collections.emptyList() : recovered.getRunning().iterator().next().getClusterIds();
+        boolean ok = recovered.getQueued().isEmpty() && clusterIds.size() == 3 && reservedRam == 90
+                && partsReleased.get() == 3 && clustersFree
+                && afterSecondRestart.getQueued().isEmpty() && afterSecondRestart.getRunning().isEmpty();
+        System.out.println("Gang after restart | running on clusters: " + clusterIds + " | reserved ram: " + reservedRam
+                + " | parts released: " + partsReleased.get() + " | queued or running after the next restart: "
+                + (afterSecondRestart.getQueued().size() + afterSecondRestart.getRunning().size()) + " | " + (ok ? "PASS" : "FAIL"));
+    }
+
+    private static List<Cluster> clusters() {
+        List<Cluster> clusters = new ArrayList<>();
+        clusters.add(new Cluster(1, 32, 8));
+        clusters.add(new Cluster(2, 32, 8));
+        clusters.add(new Cluster(3, 64, 8));
+        return clusters;
+    }
+
+    private static void recoveryTime(Path dir, long snapshotEvery) throws Exception {
+        int events = 1_000_000;
+        SchedulerJournal journal = new SchedulerJournal(dir, snapshotEvery);
+        long start = System.nanoTime();
+        long lsn = 0;
+        int jobId = 0;
+        int placed = 0;
+        int completed = 0;
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        // Steady state: about 2000 jobs queued and 1000 running, everything older has completed
+        for (int i = 0; i < events; i++) {
+            if (jobId - placed < 2000) {
+                lsn = journal.submitted(new Job(jobId++, 1 + random.nextInt(16), 1 + random.nextInt(4), 1000L, random.nextInt(5)), now);
+            } else if (placed - completed < 1000) {
+                lsn = journal.placed(new Job(placed++, 0, 0, 0L, 0), 1 + random.nextInt(3), now);
+            } else {
+                lsn = journal.completed(new Job(completed++, 0, 0, 0L, 0));
+            }
+        }
+        journal.awaitDurable(lsn);
+        long written = System.nanoTime() - start;
+        journal.close();
+
+        start = System.nanoTime();
+        SchedulerJournal reopened = new SchedulerJournal(dir, snapshotEvery);
+        long recovery = System.nanoTime() - start;
+        JournalState state = reopened.state();
+        reopened.close();
+        System.out.println(String.format("%s | %,d events written in %d ms with %d fsyncs | recovery replayed %,d events in %d ms | queued: %d running: %d",
+                snapshotEvery == Long.MAX_VALUE ? "No snapshots" : "Snapshot every " + snapshotEvery,
+                events, TimeUnit.NANOSECONDS.toMillis(written), journal.getFlushes(), reopened.getRecoveredEvents(),
+                TimeUnit.NANOSECONDS.toMillis(recovery), state.getQueued().size(), state.getRunning().size()));
+    }
+}
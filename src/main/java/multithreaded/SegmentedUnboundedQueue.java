@@ -0,0 +1,251 @@
+package multithreaded;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Unbounded int queue built from linked fixed-size array chunks. Producers and consumers work on
+ * opposite ends under separate locks (two-lock queue), and fully consumed chunks go back to a
+ * small pool so bursts don't keep churning the heap.
+ * <p>
+ * An optional soft high-water mark lets producers see backpressure through {@link #tryProduce(int)}
+ * instead of growing the queue without limit.
+ */
+class SegmentedMessageQueue {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+    private static final int DEFAULT_POOL_SIZE = 8;
+
+    private static final class Chunk {
+        private final int[] items;
+        private Chunk next;
+
+        private Chunk(int size) {
+            items = new int[size];
+        }
+    }
+
+    private final int chunkSize;
+    private final long highWaterMark;
+    private final ArrayBlockingQueue<Chunk> pool;
+    private final AtomicLong count;
+
+    private final ReentrantLock putLock;
+    private Chunk tail;
+    private int tailIndex;
+
+    private final ReentrantLock takeLock;
+    private final Condition notEmpty;
+    private Chunk head;
+    private int headIndex;
+
+    public SegmentedMessageQueue() {
+        this(Long.MAX_VALUE);
+    }
+
+    public SegmentedMessageQueue(long highWaterMark) {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_POOL_SIZE, highWaterMark);
+    }
+
+    public SegmentedMessageQueue(int chunkSize, int poolSize, long highWaterMark) {
+        if (chunkSize <= 0 || poolSize <= 0 || highWaterMark <= 0) {
+            throw new IllegalArgumentException("chunkSize, poolSize and highWaterMark must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.highWaterMark = highWaterMark;
+        pool = new ArrayBlockingQueue<>(poolSize);
+        count = new AtomicLong();
+        putLock = new ReentrantLock();
+        takeLock = new ReentrantLock();
+        notEmpty = takeLock.newCondition();
+        head = tail = new Chunk(chunkSize);
+    }
+
+    public void produce(int i) {
+        long c;
+        putLock.lock();
+        try {
+            append(i);
+            c = count.getAndIncrement();
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0) {
+            signalNotEmpty();
+        }
+    }
+
+    /**
+     * Enqueues only while the queue is below its high-water mark; returns false to signal
+     * backpressure otherwise. The mark is soft: concurrent producers may overshoot it slightly.
+     */
+    public boolean tryProduce(int i) {
+        if (isAboveHighWaterMark()) {
+            return false;
+        }
+        produce(i);
+        return true;
+    }
+
+    public void produceAll(int[] src, int off, int len) {
+        if (off < 0 || len < 0 || off + len > src.length) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + src.length);
+        }
+        if (len == 0) {
+            return;
+        }
+        long c;
+        putLock.lock();
+        try {
+            for (int i = 0; i < len; i++) {
+                append(src[off + i]);
+            }
+            c = count.getAndAdd(len);
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0) {
+            signalNotEmpty();
+        }
+    }
+
+    public int consume() throws InterruptedException {
+        int i;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                notEmpty.await();
+            }
+            i = removeFirst();
+            if (count.getAndDecrement() > 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return i;
+    }
+
+    /**
+     * Blocks until at least one element is available, then moves up to max elements into dst.
+     */
+    public int drainTo(int[] dst, int max) throws InterruptedException {
+        return drainTo(dst, max, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Like {@link #drainTo(int[], int)} but gives up and returns 0 once the timeout elapses.
+     */
+    public int drainTo(int[] dst, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        int limit = Math.min(max, dst.length);
+        if (limit <= 0) {
+            return 0;
+        }
+        long nanos = unit.toNanos(timeout);
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int taken = (int) Math.min(limit, count.get());
+            for (int i = 0; i < taken; i++) {
+                dst[i] = removeFirst();
+            }
+            if (count.getAndAdd(-taken) > taken) {
+                notEmpty.signal();
+            }
+            return taken;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    public long size() {
+        return count.get();
+    }
+
+    public boolean isAboveHighWaterMark() {
+        return count.get() >= highWaterMark;
+    }
+
+    // Guarded by putLock
+    private void append(int i) {
+        if (tailIndex == chunkSize) {
+            Chunk next = pool.poll();
+            if (next == null) {
+                next = new Chunk(chunkSize);
+            }
+            tail.next = next;
+            tail = next;
+            tailIndex = 0;
+        }
+        tail.items[tailIndex++] = i;
+    }
+
+    // Guarded by takeLock, caller has checked that an element is available
+    private int removeFirst() {
+        if (headIndex == chunkSize) {
+            Chunk consumed = head;
+            head = consumed.next;
+            headIndex = 0;
+            consumed.next = null;
+            pool.offer(consumed);
+        }
+        return head.items[headIndex++];
+    }
+
+    private void signalNotEmpty() {
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+}
+
+public class SegmentedUnboundedQueue {
+
+    public static void main(String[] args) {
+        SegmentedMessageQueue messageQueue = new SegmentedMessageQueue(50);
+        ExecutorService consumers = Executors.newFixedThreadPool(3);
+        Runnable consumer = () -> {
+            while (true) {
+                int num;
+                try {
+                    num = messageQueue.consume();
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                System.out.println(num);
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            consumers.submit(consumer);
+        }
+
+        // Producer is faster than the consumers and backs off whenever the high-water mark is hit
+        ExecutorService producers = Executors.newCachedThreadPool();
+        producers.submit(() -> {
+            int num = 0;
+            while (true) {
+                if (messageQueue.tryProduce(num)) {
+                    num++;
+                } else {
+                    System.out.println("Backpressure at size: " + messageQueue.size());
+                    Thread.sleep(500);
+                }
+            }
+        });
+    }
+}
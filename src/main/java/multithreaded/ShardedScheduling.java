@@ -0,0 +1,353 @@
+package multithreaded;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Scheduler with one priority queue and one lock per dispatcher thread instead of a single shared
+ * queue. A submission hashes the job id to a shard and only locks that shard, so submitters
+ * contend on 1 / shards of the traffic. Each dispatcher places jobs from its own shard; when that
+ * shard has nothing placeable it steals from the currently busiest shard.
+ * <p>
+ * Priority order is exact within a shard and approximate across shards. Before each dispatch the
+ * dispatcher compares the heads of two shards picked at random and takes the better of the two
+ * (the two-choice rule of MultiQueues), falling back to its own shard if that lock is busy. This
+ * keeps the expected rank error of a dispatched job, how many better jobs are still queued
+ * elsewhere, at O(shards) no matter which dispatcher threads happen to be running; a
+ * dispatcher that only served its own shard would drain it with no regard for the others whenever
+ * it ran alone for a while. Strict order is only given up further by backfilling, exactly as in
+ * {@link JobSchedulerManager}.
+ * <p>
+ * The bound assumes a dispatcher is not descheduled while it holds a shard lock, in practice no
+ * more dispatchers than cores. When they are oversubscribed a preempted lock holder's shard falls
+ * behind by as many jobs as the other dispatchers place during one time slice.
+ */
+class ShardedJobSchedulerManager {
+
+    private static final int DEFAULT_BACKFILL_WINDOW = 16;
+    private static final int DEFAULT_MAX_HEAD_BYPASS = 32;
+    private static final int CHOICE_ATTEMPTS = 4;
+
+    // Same order as PriorityOrderQueue, which every shard uses
+    private static final Comparator<QueuedJob> ORDER = Comparator.comparingInt((QueuedJob queued) -> queued.getJob().getPriority())
+            .thenComparing(Comparator.comparingLong((QueuedJob queued) -> queued.getJob().getCriticalPath()).reversed())
+            .thenComparingLong(QueuedJob::getSequence);
+
+    private static final class Shard {
+        private final ReentrantLock lock;
+        private final Condition workAvailable;
+        private final SchedulingQueue q;
+        // Snapshot of q.peek() that other dispatchers compare against without taking the lock
+        private volatile QueuedJob head;
+        private volatile int size;
+        private volatile boolean idle;
+
+        private Shard(SchedulingQueue q) {
+            lock = new ReentrantLock();
+            workAvailable = lock.newCondition();
+            this.q = q;
+        }
+    }
+
+    private final ClusterManager clusterManager;
+
+    private final Shard[] shards;
+
+    private final AtomicLong submitted;
+
+    // Bumped by every submission and release, dispatchers only sleep while it is unchanged
+    private final AtomicLong workVersion;
+
+    private final ExecutorService executorService;
+
+    public ShardedJobSchedulerManager(int dispatchers) {
+        if (dispatchers <= 0) {
+            throw new IllegalArgumentException("Invalid dispatcher count: " + dispatchers);
+        }
+        shards = new Shard[dispatchers];
+        for (int i = 0; i < dispatchers; i++) {
+            shards[i] = new Shard(new PriorityOrderQueue());
+        }
+        submitted = new AtomicLong();
+        workVersion = new AtomicLong();
+        clusterManager = new ClusterManager();
+        clusterManager.addReleaseListener(job -> signalAll());
+        executorService = Executors.newFixedThreadPool(dispatchers);
+    }
+
+    public void submitJob(Job job) {
+        if (job.getMaxParts() > 1) {
+            throw new IllegalArgumentException("Job " + job.getId() + " spans clusters, gang placement needs JobSchedulerManager");
+        }
+        Shard shard = shards[shardOf(job)];
+        shard.lock.lock();
+        try {
+            shard.q.add(new QueuedJob(job, submitted.getAndIncrement()));
+            updated(shard);
+        } finally {
+            shard.lock.unlock();
+        }
+        workVersion.incrementAndGet();
+        signal(shard);
+        if (!shard.idle) {
+            // The owner is busy, give an idle dispatcher the chance to steal the job
+            for (Shard other : shards) {
+                if (other.idle) {
+                    signal(other);
+                    break;
+                }
+            }
+        }
+    }
+
+    public void addCluster(Cluster cluster) {
+        clusterManager.addCluster(cluster);
+    }
+
+    public void startClusters() {
+        for (Shard shard : shards) {
+            executorService.submit(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    long version = workVersion.get();
+                    QueuedJob next = claimBetterOfTwo(shard);
+                    if (Objects.isNull(next)) {
+                        next = steal(shard);
+                    }
+                    if (Objects.isNull(next)) {
+                        awaitWork(shard, version);
+                        continue;
+                    }
+                    Job job = next.getJob();
+                    Cluster availableCluster = clusterManager.allocateResource(job);
+                    if (Objects.isNull(availableCluster)) {
+                        requeue(shard, next);
+                        continue;
+                    }
+                    availableCluster.submit(job);
+                    System.out.println("Job_id: " + job.getId() + " running on cluster_id: " + availableCluster.getId());
+                }
+                return null;
+            });
+        }
+    }
+
+    public int queuedJobs() {
+        int queued = 0;
+        for (Shard shard : shards) {
+            queued += shard.size;
+        }
+        return queued;
+    }
+
+    public void shutdown() {
+        executorService.shutdownNow();
+        clusterManager.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return executorService.awaitTermination(timeout, unit)
+                && clusterManager.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    int shardOf(Job job) {
+        // Spread sequential ids, the low bits of an Integer hash are the id itself
+        int h = job.getId() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    int shards() {
+        return shards.length;
+    }
+
+    private QueuedJob claimBetterOfTwo(Shard own) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; attempt < CHOICE_ATTEMPTS && shards.length > 1; attempt++) {
+            Shard first = shards[random.nextInt(shards.length)];
+            Shard second = shards[random.nextInt(shards.length)];
+            QueuedJob firstHead = first.head;
+            QueuedJob secondHead = second.head;
+            if (Objects.isNull(firstHead) && Objects.isNull(secondHead)) {
+                continue;
+            }
+            Shard better = Objects.isNull(firstHead) || Objects.nonNull(secondHead) && ORDER.compare(secondHead, firstHead) < 0 ? second : first;
+            if (better.lock.tryLock()) {
+                try {
+                    QueuedJob next = claimLocked(better);
+                    if (Objects.nonNull(next)) {
+                        return next;
+                    }
+                } finally {
+                    better.lock.unlock();
+                }
+            }
+        }
+        own.lock.lock();
+        try {
+            return claimLocked(own);
+        } finally {
+            own.lock.unlock();
+        }
+    }
+
+    private QueuedJob steal(Shard thief) {
+        Shard busiest = null;
+        for (Shard shard : shards) {
+            if (shard != thief && shard.size > 0 && (Objects.isNull(busiest) || shard.size > busiest.size)) {
+                busiest = shard;
+            }
+        }
+        // Never wait for a victim's lock, its owner or another thief is already making progress
+        if (Objects.isNull(busiest) || !busiest.lock.tryLock()) {
+            return null;
+        }
+        try {
+            return claimLocked(busiest);
+        } finally {
+            busiest.lock.unlock();
+        }
+    }
+
+    // Guarded by shard.lock
+    private QueuedJob claimLocked(Shard shard) {
+        QueuedJob next = JobSchedulerManager.claimPlaceableJob(shard.q, clusterManager, DEFAULT_BACKFILL_WINDOW, DEFAULT_MAX_HEAD_BYPASS);
+        updated(shard);
+        return next;
+    }
+
+    // Guarded by shard.lock
+    private static void updated(Shard shard) {
+        shard.head = shard.q.peek();
+        shard.size = shard.q.size();
+    }
+
+    private void requeue(Shard shard, QueuedJob queued) {
+        shard.lock.lock();
+        try {
+            shard.q.requeue(queued);
+            updated(shard);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private void awaitWork(Shard shard, long version) throws InterruptedException {
+        shard.lock.lockInterruptibly();
+        try {
+            shard.idle = true;
+            while (workVersion.get() == version) {
+                shard.workAvailable.await();
+            }
+        } finally {
+            shard.idle = false;
+            shard.lock.unlock();
+        }
+    }
+
+    private void signal(Shard shard) {
+        shard.lock.lock();
+        try {
+            shard.workAvailable.signal();
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private void signalAll() {
+        workVersion.incrementAndGet();
+        for (Shard shard : shards) {
+            signal(shard);
+        }
+    }
+}
+
+/**
+ * Measures how far the sharded scheduler's dispatch order drifts from strict global priority
+ * order: the rank error of a dispatch is how many strictly better jobs were still queued. Submit throughput is covered by
+ * the JMH {@code SchedulerBenchmark}.
+ */
+public class ShardedScheduling {
+
+    public static void main(String[] args) throws InterruptedException {
+        int jobs = 20_000;
+        for (int dispatchers : new int[]{1, 4, 8}) {
+            ShardedJobSchedulerManager scheduler = new ShardedJobSchedulerManager(dispatchers);
+            ConcurrentLinkedQueue<Job> dispatchOrder = new ConcurrentLinkedQueue<>();
+            scheduler.addCluster(new Cluster(1, Integer.MAX_VALUE >> 1, Integer.MAX_VALUE >> 1) {
+                @Override
+                public void submit(Job job) {
+                    dispatchOrder.add(job);
+                    super.submit(job);
+                }
+            });
+
+            Random random = new Random(42);
+            List<Job> submitted = new ArrayList<>(jobs);
+            for (int id = 0; id < jobs; id++) {
+                Job job = new Job(id, 1, 1, 0L, random.nextInt(100));
+                submitted.add(job);
+                scheduler.submitJob(job);
+            }
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            try {
+                scheduler.startClusters();
+                while (dispatchOrder.size() < jobs) {
+                    Thread.sleep(10);
+                }
+                scheduler.shutdown();
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } finally {
+                System.setOut(out);
+            }
+
+            // Rank error of a dispatch: how many strictly better jobs were still queued at that moment
+            Comparator<Job> strict = Comparator.comparingInt(Job::getPriority).thenComparingInt(Job::getId);
+            submitted.sort(strict);
+            int[] globalRank = new int[jobs];
+            for (int rank = 0; rank < jobs; rank++) {
+                globalRank[submitted.get(rank).getId()] = rank;
+            }
+            // Fenwick tree over global ranks of the jobs already dispatched
+            int[] dispatchedBelow = new int[jobs + 1];
+            int index = 0;
+            long maxError = 0;
+            long totalError = 0;
+            LatencyHistogram errors = new LatencyHistogram();
+            for (Job job : dispatchOrder) {
+                int rank = globalRank[job.getId()];
+                int better = 0;
+                for (int i = rank; i > 0; i -= i & -i) {
+                    better += dispatchedBelow[i];
+                }
+                long error = rank - better;
+                errors.record(error);
+                maxError = Math.max(maxError, error);
+                totalError += error;
+                for (int i = rank + 1; i <= jobs; i += i & -i) {
+                    dispatchedBelow[i]++;
+                }
+                index++;
+            }
+            System.out.println(String.format("Dispatchers: %d on %d cores | jobs: %d | rank error mean=%.1f p99=%d max=%d",
+                    dispatchers, Runtime.getRuntime().availableProcessors(), jobs, (double) totalError / index, errors.percentile(99), maxError));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package multithreaded;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress check for {@link Topic}: thousands of subscribe/unsubscribe calls race with publishers
+ * on one topic. Afterwards every live subscriber must have seen each publisher's messages in order
+ * and the final message, unsubscribed ones must not have received the final message, and no call
+ * may have thrown.
+ */
+public class TopicConcurrencyStress {
+
+    private static final int SUBSCRIBER_THREADS = 8;
+    private static final int SUBSCRIBERS_PER_THREAD = 500;
+    private static final int PUBLISHER_THREADS = 4;
+    private static final int MESSAGES_PER_PUBLISHER = 2000;
+    private static final String FINAL_MESSAGE = "final";
+
+    public static void main(String[] args) throws InterruptedException {
+        PubSubQueueSystem pubSubQueueSystem = new PubSubQueueSystem();
+        pubSubQueueSystem.addTopic("stress");
+
+        List<Subscriber> live = Collections.synchronizedList(new ArrayList<>());
+        List<Subscriber> removed = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < SUBSCRIBER_THREADS; t++) {
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < SUBSCRIBERS_PER_THREAD; i++) {
+                    Subscriber subscriber = new Subscriber("stress");
+                    pubSubQueueSystem.subscribe("stress", subscriber);
+                    if (i % 5 == 0) {
+                        pubSubQueueSystem.unsubscribe("stress", subscriber);
+                        removed.add(subscriber);
+                    } else {
+                        live.add(subscriber);
+                    }
+                }
+            }));
+        }
+        for (int t = 0; t < PUBLISHER_THREADS; t++) {
+            int publisher = t;
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < MESSAGES_PER_PUBLISHER; i++) {
+                    pubSubQueueSystem.publish("stress", publisher + ":" + i);
+                    if (i % 100 == 0) {
+                        // Re-adding an existing topic must not drop its subscribers
+                        pubSubQueueSystem.addTopic("stress");
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pubSubQueueSystem.publish("stress", FINAL_MESSAGE);
+
+        List<String> errors = new ArrayList<>();
+        if (failure.get() != null) {
+            errors.add("Concurrent call threw: " + failure.get());
+        }
+        try {
+            pubSubQueueSystem.publish("unknown", "msg");
+            errors.add("Publishing to an unknown topic did not fail");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        int subscriberCount = pubSubQueueSystem.getTopic("stress").subscriberCount();
+        if (subscriberCount != live.size()) {
+            errors.add("Topic has " + subscriberCount + " subscribers, expected " + live.size());
+        }
+        for (Subscriber subscriber : live) {
+            int[] lastSeen = new int[PUBLISHER_THREADS];
+            Arrays.fill(lastSeen, -1);
+            String msg;
+            String last = null;
+            while ((msg = subscriber.poll()) != null) {
+                last = msg;
+                if (FINAL_MESSAGE.equals(msg)) {
+                    continue;
+                }
+                int colon = msg.indexOf(':');
+                int publisher = Integer.parseInt(msg.substring(0, colon));
+                int seq = Integer.parseInt(msg.substring(colon + 1));
+                if (seq <= lastSeen[publisher]) {
+                    errors.add("Out of order delivery from publisher " + publisher + ": " + seq + " after " + lastSeen[publisher]);
+                }
+                lastSeen[publisher] = seq;
+            }
+            if (!FINAL_MESSAGE.equals(last)) {
+                errors.add("Live subscriber missed the final message");
+            }
+        }
+        for (Subscriber subscriber : removed) {
+            String msg;
+            while ((msg = subscriber.poll()) != null) {
+                if (FINAL_MESSAGE.equals(msg)) {
+                    errors.add("Unsubscribed subscriber received the final message");
+                }
+            }
+        }
+
+        System.out.println("Subscribers live: " + live.size() + " | unsubscribed: " + removed.size()
+                + " | messages per publisher: " + MESSAGES_PER_PUBLISHER);
+        if (errors.isEmpty()) {
+            System.out.println("PASS");
+        } else {
+            errors.stream().distinct().limit(20).forEach(System.out::println);
+            System.out.println("FAIL (" + errors.size() + " errors)");
+            System.exit(1);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 class MessageQueue {
 
@@ -36,6 +37,121 @@ class MessageQueue {
         }
     }
 
+    /**
+     * Enqueues src[off, off + len) under a single mutex acquisition.
+     */
+    public void produceAll(int[] src, int off, int len) throws InterruptedException {
+        if (off < 0 || len < 0 || off + len > src.length) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + src.length);
+        }
+        if (len == 0) {
+            return;
+        }
+        mutex.acquire();
+        try {
+            for (int i = 0; i < len; i++) {
+                q.add(src[off + i]);
+            }
+        } finally {
+            mutex.release();
+            consumer.release(len);
+        }
+    }
+
+    /**
+     * Blocks until at least one element is available, then moves up to max elements into dst.
+     */
+    public int drainTo(int[] dst, int max) throws InterruptedException {
+        int limit = Math.min(max, dst.length);
+        if (limit <= 0) {
+            return 0;
+        }
+        consumer.acquire();
+        return drainAcquired(dst, limit);
+    }
+
+    /**
+     * Like {@link #drainTo(int[], int)} but gives up and returns 0 once the timeout elapses.
+     */
+    public int drainTo(int[] dst, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        int limit = Math.min(max, dst.length);
+        if (limit <= 0 || !consumer.tryAcquire(timeout, unit)) {
+            return 0;
+        }
+        return drainAcquired(dst, limit);
+    }
+
+    private int drainAcquired(int[] dst, int limit) {
+        int taken = 1 + Semaphores.tryAcquireUpTo(consumer, limit - 1);
+        mutex.acquireUninterruptibly();
+        try {
+            for (int i = 0; i < taken; i++) {
+                dst[i] = q.remove();
+            }
+        } finally {
+            mutex.release();
+        }
+        return taken;
+    }
+
+}
+
+/**
+ * int-only counterpart of {@link MessageQueue}. Elements live in a growable int[] ring, so once
+ * the ring has grown to the working-set size produce/consume no longer allocate.
+ */
+class IntMessageQueue {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] items;
+    private int head;
+    private int tail;
+    private int count;
+
+    public IntMessageQueue() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public IntMessageQueue(int initialCapacity) {
+        items = new int[Math.max(1, initialCapacity)];
+    }
+
+    public synchronized void produce(int i) {
+        if (count == items.length) {
+            grow();
+        }
+        items[tail] = i;
+        tail = tail + 1 == items.length ? 0 : tail + 1;
+        if (count++ == 0) {
+            notifyAll();
+        }
+    }
+
+    public synchronized int consume() throws InterruptedException {
+        while (count == 0) {
+            wait();
+        }
+        int i = items[head];
+        head = head + 1 == items.length ? 0 : head + 1;
+        count--;
+        return i;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private void grow() {
+        int[] grown = new int[items.length << 1];
+        int firstPart = items.length - head;
+        System.arraycopy(items, head, grown, 0, firstPart);
+        System.arraycopy(items, 0, grown, firstPart, head);
+        items = grown;
+        head = 0;
+        tail = count;
+    }
+
 }
 
 public class UnboundedBlockingQueue {
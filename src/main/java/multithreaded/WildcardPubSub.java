@@ -0,0 +1,156 @@
+package multithreaded;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of wildcard subscriptions over dot-separated topic names. In a pattern, {@code *} matches
+ * exactly one level and {@code #} matches zero or more levels, e.g. {@code sports.*} matches
+ * {@code sports.cricket} and {@code news.#} matches {@code news}, {@code news.world.asia}.
+ * <p>
+ * Matching walks the trie one level at a time, so it costs O(depth) instead of a scan over all
+ * patterns. Results are cached per concrete topic and the cache is dropped whenever a
+ * subscription changes.
+ */
+class TopicTrie {
+
+    private static final String SEPARATOR = "\\.";
+    private static final String SINGLE_LEVEL = "*";
+    private static final String MULTI_LEVEL = "#";
+    private static final TopicSubscriber[] NO_SUBSCRIBERS = new TopicSubscriber[0];
+
+    private static final class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private final Set<TopicSubscriber> subscribers = new CopyOnWriteArraySet<>();
+    }
+
+    private final Node root;
+    private final ConcurrentHashMap<String, TopicSubscriber[]> resolved;
+    private final AtomicLong version;
+
+    public TopicTrie() {
+        root = new Node();
+        resolved = new ConcurrentHashMap<>();
+        version = new AtomicLong();
+    }
+
+    public synchronized void subscribe(String pattern, TopicSubscriber subscriber) {
+        Node node = root;
+        for (String level : parse(pattern)) {
+            node = node.children.computeIfAbsent(level, l -> new Node());
+        }
+        node.subscribers.add(subscriber);
+        invalidate();
+    }
+
+    public synchronized boolean unsubscribe(String pattern, TopicSubscriber subscriber) {
+        Node node = root;
+        for (String level : parse(pattern)) {
+            node = node.children.get(level);
+            if (node == null) {
+                return false;
+            }
+        }
+        boolean removed = node.subscribers.remove(subscriber);
+        if (removed) {
+            invalidate();
+        }
+        return removed;
+    }
+
+    /**
+     * All subscribers whose pattern matches the concrete topic name.
+     */
+    public TopicSubscriber[] match(String topic) {
+        TopicSubscriber[] subscribers = resolved.get(topic);
+        if (subscribers != null) {
+            return subscribers;
+        }
+        long seen = version.get();
+        Set<TopicSubscriber> matches = new LinkedHashSet<>();
+        collect(root, topic.split(SEPARATOR), 0, matches);
+        subscribers = matches.isEmpty() ? NO_SUBSCRIBERS : matches.toArray(NO_SUBSCRIBERS);
+        resolved.put(topic, subscribers);
+        if (version.get() != seen) {
+            // A subscription changed while resolving, don't keep a possibly stale entry around
+            resolved.remove(topic);
+        }
+        return subscribers;
+    }
+
+    private void collect(Node node, String[] levels, int depth, Set<TopicSubscriber> matches) {
+        Node multi = node.children.get(MULTI_LEVEL);
+        if (multi != null) {
+            // '#' swallows any number of the remaining levels, including none
+            for (int skip = depth; skip <= levels.length; skip++) {
+                collect(multi, levels, skip, matches);
+            }
+        }
+        if (depth == levels.length) {
+            matches.addAll(node.subscribers);
+            return;
+        }
+        Node exact = node.children.get(levels[depth]);
+        if (exact != null) {
+            collect(exact, levels, depth + 1, matches);
+        }
+        Node single = node.children.get(SINGLE_LEVEL);
+        if (single != null) {
+            collect(single, levels, depth + 1, matches);
+        }
+    }
+
+    private void invalidate() {
+        version.incrementAndGet();
+        resolved.clear();
+    }
+
+    private static String[] parse(String pattern) {
+        String[] levels = pattern.split(SEPARATOR, -1);
+        for (String level : levels) {
+            if (level.isEmpty()) {
+                throw new IllegalArgumentException("Empty level in topic pattern: " + pattern);
+            }
+            if (level.length() > 1 && (level.contains(SINGLE_LEVEL) || level.contains(MULTI_LEVEL))) {
+                throw new IllegalArgumentException("Wildcards must span a whole level: " + pattern);
+            }
+        }
+        return levels;
+    }
+}
+
+public class WildcardPubSub {
+
+    public static void main(String[] args) {
+
+        // Hierarchical topics with wildcard subscriptions
+        PubSubQueueSystem pubSubQueueSystem = new PubSubQueueSystem();
+        pubSubQueueSystem.addTopic("sports.cricket");
+        pubSubQueueSystem.addTopic("sports.football.uk");
+        pubSubQueueSystem.addTopic("news");
+        pubSubQueueSystem.addTopic("news.world.asia");
+
+        Subscriber allSports = new Subscriber("sports.*");
+        Subscriber allNews = new Subscriber("news.#");
+        Subscriber everything = new Subscriber("#");
+        pubSubQueueSystem.subscribePattern("sports.*", allSports);
+        pubSubQueueSystem.subscribePattern("news.#", allNews);
+        pubSubQueueSystem.subscribePattern("#", everything);
+
+        pubSubQueueSystem.publish("sports.cricket", "India won");
+        pubSubQueueSystem.publish("sports.football.uk", "Derby day");
+        pubSubQueueSystem.publish("news", "Morning bulletin");
+        pubSubQueueSystem.publish("news.world.asia", "Monsoon arrives");
+
+        for (Subscriber subscriber : new Subscriber[]{allSports, allNews, everything}) {
+            String msg;
+            while ((msg = subscriber.poll()) != null) {
+                System.out.println("Pattern: " + subscriber.getTopicName() + " | Message: " + msg);
+            }
+        }
+    }
+}